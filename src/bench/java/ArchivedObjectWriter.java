@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Write data in the (non-keyed) Objective-C archived object format
+ * read by {@link ArchivedObjectReader}.
+ * Used to create synthetic notes for testing.
+ */
+public class ArchivedObjectWriter {
+    private byte[] buf = new byte[64];
+    private int count;
+
+    // the known datat types
+    private static final int D_INT = 0;
+    private static final int D_BYTE_ARRAY = 2;
+    private static final int D_FLOAT = 5;
+
+    /**
+     * Write an integer value.
+     * Negative values are written as unsigned 32 bit values.
+     */
+    public ArchivedObjectWriter writeInt(int index, int val) {
+        writeTag(index, D_INT);
+        writeVarint(val & 0xffffffffL);
+        return this;
+    }
+
+    /**
+     * Write a boolean value, as an integer.
+     */
+    public ArchivedObjectWriter writeBoolean(int index, boolean val) {
+        return writeInt(index, val ? 1 : 0);
+    }
+
+    /**
+     * Write a float value.
+     */
+    public ArchivedObjectWriter writeFloat(int index, float val) {
+        writeTag(index, D_FLOAT);
+        int f = Float.floatToIntBits(val);
+        ensure(4);
+        buf[count++] = (byte)f;
+        buf[count++] = (byte)(f >> 8);
+        buf[count++] = (byte)(f >> 16);
+        buf[count++] = (byte)(f >> 24);
+        return this;
+    }
+
+    /**
+     * Write a byte array.
+     */
+    public ArchivedObjectWriter writeBytes(int index, byte[] b,
+                                    int off, int len) {
+        writeTag(index, D_BYTE_ARRAY);
+        writeVarint(len);
+        ensure(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+        return this;
+    }
+
+    /**
+     * Write a byte array.
+     */
+    public ArchivedObjectWriter writeBytes(int index, byte[] b) {
+        return writeBytes(index, b, 0, b.length);
+    }
+
+    /**
+     * Write a string, in UTF-8.
+     */
+    public ArchivedObjectWriter writeString(int index, String s) {
+        return writeBytes(index, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write a nested object.
+     */
+    public ArchivedObjectWriter writeObject(int index,
+                                    ArchivedObjectWriter obj) {
+        return writeBytes(index, obj.buf, 0, obj.count);
+    }
+
+    /**
+     * Return the number of bytes written.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return a copy of the bytes written.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    private void writeTag(int index, int type) {
+        writeVarint((index << 3) | type);
+    }
+
+    private void writeVarint(long val) {
+        ensure(10);
+        while ((val & ~0x7fL) != 0) {
+            buf[count++] = (byte)((val & 0x7f) | 0x80);
+            val >>>= 7;
+        }
+        buf[count++] = (byte)val;
+    }
+
+    private void ensure(int n) {
+        if (count + n > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+    }
+}
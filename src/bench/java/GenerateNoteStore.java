@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.File;
+import java.sql.*;
+import java.util.Random;
+
+/**
+ * Generate a synthetic Notes database, for load testing.
+ *
+ * The database has the tables and columns used by SaveNotes, with
+ * folders and notes, some of which are deleted (have no folder).
+ * Each note's data is a synthetic note in the gzipped archived
+ * object format.
+ *
+ * @author Bill Shannon
+ */
+public class GenerateNoteStore {
+    private static String db = "NoteStore.sqlite";
+    private static int notes = 1000;
+    private static int meanSize = 2000;
+    private static int maxSize = 200000;
+    private static double density = 0.3;
+    private static int meanEdits = 50;
+    private static int listDepth = 3;
+    private static int folders = 10;
+    private static double deleted = 0.05;
+    private static long seed = 1;
+    private static boolean verbose;
+
+    // Core Data timestamps are seconds since 2001-01-01
+    private static final double START_DATE = 500000000;
+
+    public static void main(String[] argv) throws Exception {
+        int optind;
+        for (optind = 0; optind < argv.length; optind++) {
+            if (argv[optind].equals("-f")) {
+                db = argv[++optind];
+            } else if (argv[optind].equals("-n")) {
+                notes = Integer.parseInt(argv[++optind]);
+            } else if (argv[optind].equals("-s")) {
+                meanSize = Integer.parseInt(argv[++optind]);
+            } else if (argv[optind].equals("-x")) {
+                maxSize = Integer.parseInt(argv[++optind]);
+            } else if (argv[optind].equals("-F")) {
+                density = Double.parseDouble(argv[++optind]);
+            } else if (argv[optind].equals("-e")) {
+                meanEdits = Integer.parseInt(argv[++optind]);
+            } else if (argv[optind].equals("-l")) {
+                listDepth = Integer.parseInt(argv[++optind]);
+            } else if (argv[optind].equals("-k")) {
+                folders = Integer.parseInt(argv[++optind]);
+            } else if (argv[optind].equals("-D")) {
+                deleted = Double.parseDouble(argv[++optind]);
+            } else if (argv[optind].equals("-S")) {
+                seed = Long.parseLong(argv[++optind]);
+            } else if (argv[optind].equals("-v")) {
+                verbose = true;
+            } else {
+                System.out.println(
+                    "Usage: GenerateNoteStore [-f db] [-n notes] [-s size]" +
+                    " [-x maxsize] [-F density] [-e edits] [-l depth]" +
+                    " [-k folders] [-D deleted] [-S seed] [-v]");
+                System.exit(1);
+            }
+        }
+
+        File f = new File(db);
+        if (f.exists()) {
+            System.out.println("Database already exists: " + db);
+            System.exit(1);
+        }
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db)) {
+            generate(conn);
+        }
+    }
+
+    /**
+     * Create the tables and fill them with folders and notes.
+     */
+    private static void generate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE ZICNOTEDATA (" +
+                " Z_PK INTEGER PRIMARY KEY," +
+                " Z_ENT INTEGER," +
+                " Z_OPT INTEGER," +
+                " ZNOTE INTEGER," +
+                " ZCRYPTOINITIALIZATIONVECTOR BLOB," +
+                " ZCRYPTOTAG BLOB," +
+                " ZDATA BLOB)");
+            stmt.executeUpdate("CREATE TABLE ZICCLOUDSYNCINGOBJECT (" +
+                " Z_PK INTEGER PRIMARY KEY," +
+                " Z_ENT INTEGER," +
+                " Z_OPT INTEGER," +
+                " ZMARKEDFORDELETION INTEGER," +
+                " ZACCOUNT2 INTEGER," +
+                " ZACCOUNT3 INTEGER," +
+                " ZFOLDER INTEGER," +
+                " ZNOTE INTEGER," +
+                " ZNOTEDATA INTEGER," +
+                " ZMEDIA INTEGER," +
+                " ZATTACHMENT1 INTEGER," +
+                " ZCREATIONDATE1 TIMESTAMP," +
+                " ZLASTVIEWEDMODIFICATIONDATE TIMESTAMP," +
+                " ZMODIFICATIONDATE1 TIMESTAMP," +
+                " ZIDENTIFIER VARCHAR," +
+                " ZTITLE1 VARCHAR," +
+                " ZTITLE2 VARCHAR," +
+                " ZSNIPPET VARCHAR," +
+                " ZTYPEUTI VARCHAR," +
+                " ZFILENAME VARCHAR," +
+                " ZMERGEABLEDATA BLOB)");
+            stmt.executeUpdate("CREATE INDEX ZICCLOUDSYNCINGOBJECT_ZNOTEDATA" +
+                " ON ZICCLOUDSYNCINGOBJECT (ZNOTEDATA)");
+            stmt.executeUpdate("CREATE INDEX ZICCLOUDSYNCINGOBJECT_ZIDENTIFIER" +
+                " ON ZICCLOUDSYNCINGOBJECT (ZIDENTIFIER)");
+        }
+
+        Random r = new Random(seed);
+        conn.setAutoCommit(false);
+        int pk = 1;
+        int firstFolder = pk;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO ZICCLOUDSYNCINGOBJECT" +
+                " (Z_PK, Z_ENT, ZTITLE2, ZIDENTIFIER) VALUES (?, 15, ?, ?)")) {
+            for (int i = 0; i < folders; i++, pk++) {
+                ps.setInt(1, pk);
+                ps.setString(2, i == 0 ? "Notes" : "Folder " + i);
+                ps.setString(3, uuid(r));
+                ps.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement nd = conn.prepareStatement(
+                "INSERT INTO ZICNOTEDATA (Z_PK, Z_ENT, ZNOTE, ZDATA)" +
+                " VALUES (?, 10, ?, ?)");
+             PreparedStatement no = conn.prepareStatement(
+                "INSERT INTO ZICCLOUDSYNCINGOBJECT" +
+                " (Z_PK, Z_ENT, ZFOLDER, ZNOTEDATA, ZIDENTIFIER, ZTITLE1," +
+                " ZSNIPPET, ZCREATIONDATE1, ZLASTVIEWEDMODIFICATIONDATE," +
+                " ZMODIFICATIONDATE1, ZMARKEDFORDELETION)" +
+                " VALUES (?, 11, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 1; i <= notes; i++, pk++) {
+                // exponential size distribution, mostly small notes
+                int size = (int)Math.min(maxSize,
+                    20 - meanSize * Math.log(1 - r.nextDouble()));
+                int runs = 1 + (int)(size * density / 20);
+                int edits = (int)(-meanEdits * Math.log(1 - r.nextDouble()));
+                SyntheticNote note = new SyntheticNote(r.nextLong(), size,
+                                            runs, edits, listDepth, density);
+                boolean isDeleted = r.nextDouble() < deleted;
+
+                nd.setInt(1, i);
+                nd.setInt(2, pk);
+                nd.setBytes(3, note.data());
+                nd.executeUpdate();
+
+                double created = START_DATE + r.nextInt(100000000);
+                double modified = created + r.nextDouble() * 10000000;
+                no.setInt(1, pk);
+                if (isDeleted)
+                    no.setNull(2, Types.INTEGER);
+                else
+                    no.setInt(2, firstFolder + r.nextInt(folders));
+                no.setInt(3, i);
+                no.setString(4, uuid(r));
+                no.setString(5, note.title);
+                no.setString(6, snippet(note));
+                no.setDouble(7, created);
+                no.setDouble(8, modified);
+                no.setDouble(9, modified);
+                no.setInt(10, isDeleted ? 1 : 0);
+                no.executeUpdate();
+
+                if (i % 1000 == 0) {
+                    conn.commit();
+                    if (verbose)
+                        System.out.println("Notes: " + i);
+                }
+            }
+        }
+        conn.commit();
+    }
+
+    /**
+     * The snippet is the text following the title.
+     */
+    private static String snippet(SyntheticNote note) {
+        String s = note.text.substring(
+                        Math.min(note.text.length(), note.title.length() + 1));
+        return s.length() > 100 ? s.substring(0, 100) : s;
+    }
+
+    /**
+     * Generate a random UUID, in the same format Notes uses.
+     */
+    private static String uuid(Random r) {
+        return new java.util.UUID(r.nextLong(), r.nextLong()).
+                toString().toUpperCase();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import bench.NoteOperations;
+
+/**
+ * The operations measured by the benchmarks,
+ * applied to a synthetic note.
+ */
+public class NoteOperationsImpl implements NoteOperations {
+    private byte[] data;
+    private byte[] archive;
+    private NoteContent content;
+    // shared by all the decodes, as in an export
+    private final StyleTable styles = new StyleTable();
+
+    // the rendered output is discarded
+    private static final Writer NULL_WRITER = new Writer() {
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        public void write(String str, int off, int len) {
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    };
+
+    public void setup(int textSize, int runs, int edits, int listDepth)
+                                throws IOException {
+        SyntheticNote note =
+            new SyntheticNote(1, textSize, runs, edits, listDepth, 0.5);
+        data = note.data();
+        archive = note.archive();
+        content = decode();
+    }
+
+    public int archiveSize() {
+        return archive.length;
+    }
+
+    public int readerNext() throws IOException {
+        ArchivedObjectReader nr = textObject();
+        int n = 0;
+        ObjectData nd;
+        while ((nd = nr.next()) != null)
+            n += nd.index();
+        return n;
+    }
+
+    public int readerAccept() throws IOException {
+        final int[] n = new int[1];
+        textObject().accept(new ArchivedObjectVisitor() {
+            public void intValue(int index, long value) {
+                n[0] += index;
+            }
+
+            public void floatValue(int index, float value) {
+                n[0] += index;
+            }
+
+            public boolean bytesValue(int index, byte[] buf, int off,
+                                        int len) {
+                n[0] += index;
+                return false;
+            }
+
+            public void endObject(int index) {
+            }
+        });
+        return n[0];
+    }
+
+    public NoteContent decode() throws IOException {
+        return SaveNotes.decodeNote(NoteInflater.inflate(data), true, styles);
+    }
+
+    public int compile() {
+        return new RenderProgram(content.text, content.attributes).length();
+    }
+
+    public long html() throws IOException {
+        NoteWriter w = new NoteWriter(NULL_WRITER);
+        new HtmlRenderer().render(
+                new RenderProgram(content.text, content.attributes), w);
+        return w.length();
+    }
+
+    public long markdown() throws IOException {
+        NoteWriter w = new NoteWriter(NULL_WRITER);
+        new MarkdownRenderer().render(
+                new RenderProgram(content.text, content.attributes), w);
+        return w.length();
+    }
+
+    public long marked() throws IOException {
+        NoteWriter w = new NoteWriter(NULL_WRITER);
+        new MarkedRenderer().render(
+                new RenderProgram(content.text, content.attributes), w);
+        return w.length();
+    }
+
+    /**
+     * Return a reader for the object containing the text,
+     * edit records, and attributes.
+     */
+    private ArchivedObjectReader textObject() throws IOException {
+        ArchivedObjectReader nr = new ArchivedObjectReader(archive);
+        nr.next();
+        nr = nr.next().getObject();
+        nr.next();
+        nr.next();
+        return nr.next().getObject();
+    }
+}
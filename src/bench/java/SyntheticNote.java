@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A synthetic note, with generated text and formatting, in the
+ * archived object format described in NSAttributedString.txt.
+ * Used for benchmarks and load testing.
+ */
+public class SyntheticNote {
+    public final String title;
+    public final String text;
+    private final byte[] archive;
+
+    private static final String[] WORDS = {
+        "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog",
+        "notes", "meeting", "agenda", "caf\u00e9", "r\u00e9sum\u00e9",
+        "<tag>", "a&b", "x*y", "under_score", "[link]", "`code`",
+        "lorem", "ipsum", "dolor", "sit", "amet", "2019", "TODO"
+    };
+
+    /**
+     * Create a synthetic note.
+     *
+     * @param seed              the random number seed
+     * @param textSize          number of characters of text
+     * @param runs              number of attribute runs
+     * @param edits             number of edit records
+     * @param listDepth         maximum list nesting depth (0 for no lists)
+     * @param density           fraction of runs with text formatting
+     */
+    public SyntheticNote(long seed, int textSize, int runs, int edits,
+                                int listDepth, double density) {
+        Random r = new Random(seed);
+        title = "Note " + seed;
+        text = makeText(r, title, textSize);
+        runs = Math.max(1, Math.min(runs, text.length()));
+
+        ArchivedObjectWriter s3 = new ArchivedObjectWriter();
+        s3.writeString(2, text);
+        for (int i = 0; i < edits; i++) {
+            ArchivedObjectWriter er = new ArchivedObjectWriter();
+            er.writeObject(1, new ArchivedObjectWriter()
+                .writeInt(1, i == 0 ? 0 : 1).writeInt(2, i));
+            er.writeInt(2, 1 + r.nextInt(20));
+            er.writeObject(3, new ArchivedObjectWriter()
+                .writeInt(1, i == 0 ? 0 : 1).writeInt(2, 0));
+            er.writeInt(5, i + 1);
+            s3.writeObject(3, er);
+        }
+        // the last edit record
+        s3.writeObject(3, new ArchivedObjectWriter().writeObject(1,
+            new ArchivedObjectWriter().writeInt(1, 0).writeInt(2, -1)));
+
+        byte[] unknown = new byte[16];
+        r.nextBytes(unknown);
+        s3.writeObject(4, new ArchivedObjectWriter().writeObject(1,
+            new ArchivedObjectWriter()
+                .writeBytes(1, unknown)
+                .writeObject(2, new ArchivedObjectWriter().writeInt(1, edits))
+                .writeObject(2, new ArchivedObjectWriter().writeInt(1, edits))));
+
+        int len = text.length();
+        int indent = 0;
+        int step = 1;
+        for (int i = 0; i < runs; i++) {
+            int alen = (int)((long)(i + 1) * len / runs) -
+                        (int)((long)i * len / runs);
+            ArchivedObjectWriter a = new ArchivedObjectWriter();
+            a.writeInt(1, alen);
+
+            int ps = i == 0 ? ParagraphStyle.TITLE :
+                                paragraphStyle(r, listDepth);
+            if (ps != ParagraphStyle.NONE) {
+                ArchivedObjectWriter p = new ArchivedObjectWriter();
+                p.writeInt(1, ps);
+                if (ps >= ParagraphStyle.LIST_START) {
+                    // move up and down through the nesting levels
+                    p.writeInt(4, indent);
+                    if (indent + step < 0 || indent + step >= listDepth)
+                        step = -step;
+                    indent = Math.max(0,
+                                Math.min(listDepth - 1, indent + step));
+                }
+                if (ps == ParagraphStyle.CHECKLIST)
+                    p.writeObject(5, new ArchivedObjectWriter()
+                        .writeBytes(1, unknown)
+                        .writeBoolean(2, r.nextBoolean()));
+                a.writeObject(2, p);
+            }
+
+            if (r.nextDouble() < density) {
+                switch (r.nextInt(7)) {
+                case 0:
+                    a.writeInt(5, 1 + r.nextInt(3));   // bold, italic
+                    break;
+                case 1:
+                    a.writeInt(6, 1);
+                    break;
+                case 2:
+                    a.writeInt(7, 1);
+                    break;
+                case 3:
+                    a.writeString(9, "https://example.com/" + i);
+                    break;
+                case 4:
+                    a.writeObject(3, new ArchivedObjectWriter()
+                        .writeString(1, "Helvetica")
+                        .writeFloat(2, 14 + r.nextInt(3) * 4));
+                    break;
+                case 5:
+                    a.writeObject(10, new ArchivedObjectWriter()
+                        .writeFloat(1, r.nextFloat())
+                        .writeFloat(2, r.nextFloat())
+                        .writeFloat(3, r.nextFloat())
+                        .writeFloat(4, 1));
+                    break;
+                case 6:
+                    a.writeInt(5, TextStyle.BOLD);
+                    a.writeInt(6, 1);
+                    break;
+                }
+            }
+            s3.writeObject(5, a);
+        }
+
+        ArchivedObjectWriter top = new ArchivedObjectWriter();
+        top.writeInt(1, 0);
+        top.writeObject(2, new ArchivedObjectWriter()
+            .writeInt(1, 0).writeInt(2, 0).writeObject(3, s3));
+        archive = top.toByteArray();
+    }
+
+    /**
+     * Return the archived object data.
+     */
+    public byte[] archive() {
+        return archive;
+    }
+
+    /**
+     * Return the gzipped archived object data,
+     * as stored in the Notes database.
+     */
+    public byte[] data() {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+                gos.write(archive);
+            }
+            return bos.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);     // can't happen
+        }
+    }
+
+    /**
+     * Make up some text, starting with the title.
+     */
+    private static String makeText(Random r, String title, int size) {
+        StringBuilder sb = new StringBuilder(size + 16);
+        sb.append(title).append('\n');
+        int words = 0;
+        while (sb.length() < size) {
+            sb.append(WORDS[r.nextInt(WORDS.length)]);
+            if (++words % (6 + r.nextInt(8)) == 0)
+                sb.append('\n');
+            else
+                sb.append(' ');
+        }
+        if (sb.length() > size && size > title.length())
+            sb.setLength(size);
+        return sb.toString();
+    }
+
+    /**
+     * Choose a paragraph style, mostly plain text.
+     */
+    private static int paragraphStyle(Random r, int listDepth) {
+        int n = r.nextInt(10);
+        if (n < 5)
+            return ParagraphStyle.NONE;
+        if (n == 5)
+            return ParagraphStyle.HEADING;
+        if (n == 6)
+            return ParagraphStyle.MONO;
+        if (listDepth == 0)
+            return ParagraphStyle.NONE;
+        if (n == 7)
+            return ParagraphStyle.BULLET;
+        if (n == 8)
+            return ParagraphStyle.NUMBERED;
+        return ParagraphStyle.CHECKLIST;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for the note decoder and renderers,
+ * using synthetic notes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoteBenchmark {
+    @Param({ "1000", "100000" })
+    public int textSize;
+
+    @Param({ "10", "1000" })
+    public int runs;
+
+    @Param({ "0", "1000" })
+    public int edits;
+
+    @Param({ "0", "4" })
+    public int listDepth;
+
+    private NoteOperations ops;
+
+    /**
+     * Create the NoteOperations implementation,
+     * which is in the default package.
+     */
+    static NoteOperations operations() {
+        try {
+            return (NoteOperations)Class.forName("NoteOperationsImpl").
+                getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        ops = operations();
+        ops.setup(textSize, runs, edits, listDepth);
+    }
+
+    @Benchmark
+    public int readerNext() throws IOException {
+        return ops.readerNext();
+    }
+
+    @Benchmark
+    public int readerAccept() throws IOException {
+        return ops.readerAccept();
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        return ops.decode();
+    }
+
+    @Benchmark
+    public int compile() {
+        return ops.compile();
+    }
+
+    @Benchmark
+    public long html() throws IOException {
+        return ops.html();
+    }
+
+    @Benchmark
+    public long markdown() throws IOException {
+        return ops.markdown();
+    }
+
+    @Benchmark
+    public long marked() throws IOException {
+        return ops.marked();
+    }
+}
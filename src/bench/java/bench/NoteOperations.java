@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package bench;
+
+import java.io.IOException;
+
+/**
+ * The operations measured by the benchmarks.
+ * The savenotes classes are in the default package, which JMH doesn't
+ * allow for benchmarks, and which can't be referenced from a named
+ * package, so the benchmarks use an implementation of this interface
+ * in the default package.
+ */
+public interface NoteOperations {
+
+    /**
+     * Create the synthetic note to operate on.
+     */
+    void setup(int textSize, int runs, int edits, int listDepth)
+                                throws IOException;
+
+    /**
+     * Return the size of the note's archived object data.
+     */
+    int archiveSize();
+
+    /**
+     * Read all the items in the text object using next().
+     */
+    int readerNext() throws IOException;
+
+    /**
+     * Visit all the items in the text object using accept().
+     */
+    int readerAccept() throws IOException;
+
+    /**
+     * Inflate and decode the whole note.
+     */
+    Object decode() throws IOException;
+
+    /**
+     * Compile the decoded note's styles, returning the program length.
+     */
+    int compile();
+
+    /**
+     * Compile and render the decoded note, returning the number of chars rendered.
+     */
+    long html() throws IOException;
+
+    long markdown() throws IOException;
+
+    long marked() throws IOException;
+}
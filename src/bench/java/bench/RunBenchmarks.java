@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package bench;
+
+import java.util.Collection;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the GC profiler and report the number of
+ * bytes allocated for each KB of decoded note data.
+ * Any arguments are passed to JMH.
+ */
+public class RunBenchmarks {
+    public static void main(String[] argv) throws Exception {
+        Options opts = new OptionsBuilder()
+            .parent(new CommandLineOptions(argv))
+            .addProfiler(GCProfiler.class)
+            .build();
+        Collection<RunResult> results = new Runner(opts).run();
+
+        System.out.println();
+        System.out.printf("%-40s %8s %6s %6s %5s %12s%n",
+            "Benchmark", "textSize", "runs", "edits", "depth", "B/decodedKB");
+        for (RunResult rr : results) {
+            BenchmarkParams p = rr.getParams();
+            Result<?> alloc =
+                rr.getSecondaryResults().get("gc.alloc.rate.norm");
+            if (alloc == null)  // older versions of JMH
+                alloc = rr.getSecondaryResults().get("·gc.alloc.rate.norm");
+            if (alloc == null || p.getParam("textSize") == null)
+                continue;
+            int textSize = Integer.parseInt(p.getParam("textSize"));
+            int runs = Integer.parseInt(p.getParam("runs"));
+            int edits = Integer.parseInt(p.getParam("edits"));
+            int listDepth = Integer.parseInt(p.getParam("listDepth"));
+            NoteOperations ops = NoteBenchmark.operations();
+            ops.setup(textSize, runs, edits, listDepth);
+            int size = ops.archiveSize();
+            System.out.printf("%-40s %8d %6d %6d %5d %12.1f%n",
+                p.getBenchmark(), textSize, runs, edits, listDepth,
+                alloc.getScore() * 1024 / size);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * An archive file that all the saved notes are written to, as entries
+ * named folder/title.ext, instead of writing each note to its own file.
+ *
+ * The entries are added by a single thread, in order.  The archive
+ * compresses them using a pool of threads, one per core.
+ */
+public abstract class Archive implements Closeable {
+    protected final ExecutorService pool;
+    protected final int threads;
+
+    protected Archive() {
+        threads = Runtime.getRuntime().availableProcessors();
+        pool = Executors.newFixedThreadPool(threads,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "compress");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Is the file name one of the supported archive types,
+     * .zip or .tar.gz (or .tgz)?
+     */
+    public static boolean isArchive(String name) {
+        name = name.toLowerCase(Locale.ROOT);
+        return name.endsWith(".zip") || name.endsWith(".tar.gz") ||
+                name.endsWith(".tgz");
+    }
+
+    /**
+     * Create the archive file, of the type given by its name.
+     */
+    public static Archive create(File file) throws IOException {
+        if (file.getName().toLowerCase(Locale.ROOT).endsWith(".zip"))
+            return new ZipArchive(file);
+        else
+            return new TarArchive(file);
+    }
+
+    /**
+     * Add an entry with the data and modification time
+     * (in milliseconds).
+     */
+    public abstract void add(String path, byte[] data, long time)
+                                throws IOException;
+
+    /**
+     * Write the rest of the archive and close it.
+     */
+    public void close() throws IOException {
+        pool.shutdown();
+    }
+
+    /**
+     * Return the result of the compression task,
+     * turning any failure into an IOException.
+     */
+    protected static <T> T get(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            Throwable t = ex.getCause();
+            if (t instanceof IOException)
+                throw (IOException)t;
+            throw new IOException(t);
+        }
+    }
+}
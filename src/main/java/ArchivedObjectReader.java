@@ -30,14 +30,21 @@
  */
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Read data from a (non-keyed) Objective-C archived object.
+ *
+ * The object data is read once into a single buffer.  Nested objects
+ * and byte array data items are views (offset and length) into that
+ * buffer, so the data is never copied again while decoding.
  */
 public class ArchivedObjectReader {
-    private InputStream is;
-    private byte[] bytes;
+    private final byte[] buf;
+    private final int start;
+    private final int end;
+    private int pos;
+    private int limit;          // end of the (nested) object being read
 
     // the known datat types
     private static final int D_INT = 0;
@@ -45,20 +52,19 @@ public class ArchivedObjectReader {
     private static final int D_FLOAT = 5;
 
     /**
-     * Read the object data from the InputStream.
+     * Read the object data from the byte array.
      */
-    public ArchivedObjectReader(InputStream is) throws IOException {
-        if (!is.markSupported())
-            is = new BufferedInputStream(is);
-        this.is = is;
+    public ArchivedObjectReader(byte[] ba) {
+        this(ba, 0, ba.length);
     }
 
     /**
-     * Read the object data from the byte array.
+     * Read the object data from part of the byte array.
      */
-    public ArchivedObjectReader(byte[] ba) {
-        bytes = ba;
-        is = new ByteArrayInputStream(ba);
+    public ArchivedObjectReader(byte[] ba, int off, int len) {
+        buf = ba;
+        start = pos = off;
+        end = limit = off + len;
     }
 
     /**
@@ -66,35 +72,36 @@ public class ArchivedObjectReader {
      * Used for debug output.
      */
     public byte[] getBytes() {
-        return bytes;
+        return Arrays.copyOfRange(buf, start, end);
     }
 
     /**
      * Return the next data item.
      */
     public ObjectData next() throws IOException {
-        int c = is.read();
-        if (c == -1)
+        if (pos >= end)
             return null;
-        ObjectData nd = new ObjectData(c >> 3);
+        int c = getInt();
+        ObjectData nd = new ObjectData(c >>> 3);
         int type = c & 0x07;
         switch (type) {
         case D_INT:
             long val = getLong();
-            if (val > Integer.MAX_VALUE)
+            // 32 bit values, signed or unsigned, are truncated
+            if (val > 0xffffffffL || val < Integer.MIN_VALUE)
                 err("int too large %x", val);
-            nd.setData(Integer.valueOf((int)val));
+            nd.setInt((int)val);
             break;
         case D_FLOAT:
-            float fval = getFloat();
-            nd.setData(Float.valueOf(fval));
+            nd.setFloat(getFloat());
             break;
         case D_BYTE_ARRAY:
             int len = getInt();
-            byte[] ba = new byte[len];
-            for (int i = 0; i < len; i++)
-                ba[i] = (byte)is.read();
-            nd.setData(ba);
+            if (len < 0 || len > end - pos)
+                throw new EOFException("byte array length " + len +
+                                        " exceeds data");
+            nd.setBytes(buf, pos, len);
+            pos += len;
             break;
         default:
             err("Unknown data type: %d", type);
@@ -102,14 +109,109 @@ public class ArchivedObjectReader {
         return nd;
     }
 
+    /**
+     * Return the index of the next data item, without reading it,
+     * or -1 if there are no more data items.
+     */
+    public int peekIndex() {
+        if (pos >= limit)
+            return -1;
+        int p = pos;
+        try {
+            return getInt() >>> 3;
+        } catch (IOException ex) {
+            return -1;
+        } finally {
+            pos = p;
+        }
+    }
+
+    /**
+     * Skip over the next data item without decoding it.
+     * Nested objects are skipped using their length.
+     */
+    public void skip() throws IOException {
+        int c = getInt();
+        int type = c & 0x07;
+        switch (type) {
+        case D_INT:
+            while ((read() & 0x80) != 0)
+                ;
+            break;
+        case D_FLOAT:
+            if (limit - pos < 4)
+                throw new EOFException("unexpected end of data");
+            pos += 4;
+            break;
+        case D_BYTE_ARRAY:
+            int len = getInt();
+            if (len < 0 || len > limit - pos)
+                throw new EOFException("byte array length " + len +
+                                        " exceeds data");
+            pos += len;
+            break;
+        default:
+            err("Unknown data type: %d", type);
+        }
+    }
+
+    /**
+     * Pass the remaining data items to the visitor, including the items
+     * in any nested objects the visitor chooses to visit.
+     */
+    public void accept(ArchivedObjectVisitor v) throws IOException {
+        while (pos < limit) {
+            int c = getInt();
+            int index = c >>> 3;
+            int type = c & 0x07;
+            switch (type) {
+            case D_INT:
+                v.intValue(index, getLong());
+                break;
+            case D_FLOAT:
+                v.floatValue(index, getFloat());
+                break;
+            case D_BYTE_ARRAY:
+                int len = getInt();
+                if (len < 0 || len > limit - pos)
+                    throw new EOFException("byte array length " + len +
+                                            " exceeds data");
+                int next = pos + len;
+                if (v.bytesValue(index, buf, pos, len)) {
+                    int outer = limit;
+                    limit = next;
+                    try {
+                        accept(v);
+                    } finally {
+                        limit = outer;
+                    }
+                    v.endObject(index);
+                }
+                pos = next;
+                break;
+            default:
+                err("Unknown data type: %d", type);
+            }
+        }
+    }
+
+    /**
+     * Read the next byte.
+     */
+    private int read() throws IOException {
+        if (pos >= limit)
+            throw new EOFException("unexpected end of data");
+        return buf[pos++] & 0xff;
+    }
+
     /**
      * Read a float value.
      */
     private float getFloat() throws IOException {
-        int b0 = is.read();
-        int b1 = is.read();
-        int b2 = is.read();
-        int b3 = is.read();
+        int b0 = read();
+        int b1 = read();
+        int b2 = read();
+        int b3 = read();
         int f = (b3 << 24) | (b2 << 16) | (b1 << 8) | b0;
         return Float.intBitsToFloat(f);
     }
@@ -120,7 +222,7 @@ public class ArchivedObjectReader {
     private int getInt() throws IOException {
         int len = 0;
         for (int i = 0; ; i++) {
-            int c = is.read();
+            int c = read();
             len += (c & 0x7f) << (7 * i);
             if ((c & 0x80) == 0)
                 break;
@@ -134,8 +236,8 @@ public class ArchivedObjectReader {
     private long getLong() throws IOException {
         long len = 0;
         for (int i = 0; ; i++) {
-            int c = is.read();
-            len += (c & 0x7f) << (7 * i);
+            int c = read();
+            len += (long)(c & 0x7f) << (7 * i);
             if ((c & 0x80) == 0)
                 break;
         }
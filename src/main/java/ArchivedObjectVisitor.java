@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * A visitor for the data items in a (non-keyed) Objective-C archived
+ * object, called by {@link ArchivedObjectReader#accept}.
+ *
+ * No objects are allocated to deliver the data; byte array data is
+ * passed as a range of the reader's buffer, and the visitor decides
+ * whether it's a string, raw bytes, or a nested object to be visited.
+ */
+public interface ArchivedObjectVisitor {
+
+    /**
+     * An integer data item.
+     */
+    void intValue(int index, long value);
+
+    /**
+     * A float data item.
+     */
+    void floatValue(int index, float value);
+
+    /**
+     * A byte array data item, at buf[off] to buf[off + len - 1].
+     * Return true if the data is a nested object whose items should
+     * be visited next, followed by a call to {@link #endObject}.
+     * The buffer must not be modified.
+     */
+    boolean bytesValue(int index, byte[] buf, int off, int len);
+
+    /**
+     * The end of a nested object.
+     */
+    void endObject(int index);
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Copies the attachments (images, PDFs, etc.) referenced by notes
+ * from the Notes Media directory to the Attachments directory in the
+ * output directory, so the saved notes can link to them.
+ *
+ * An attachment with uuid is stored in Media/uuid, which is either
+ * the file itself or a directory containing the file.  The copies
+ * are named by the SHA-256 hash of their content, so an attachment
+ * used by many notes, or copied by a previous run, is stored once.
+ *
+ * The files are copied by a fixed number of I/O threads, using
+ * FileChannel.transferTo, so the data isn't copied through the JVM.
+ * Notes start copying their attachments when they're decoded, and
+ * wait for them when they're rendered.
+ */
+public class Attachments {
+    public static final String DIR = "Attachments";
+
+    private static final int CHUNK = 64 * 1024 * 1024;    // for hashing
+
+    // file name extensions for the common attachment types
+    private static final Map<String, String> extensions = new HashMap<>();
+    static {
+        extensions.put("public.jpeg", "jpeg");
+        extensions.put("public.png", "png");
+        extensions.put("public.heic", "heic");
+        extensions.put("public.tiff", "tiff");
+        extensions.put("com.compuserve.gif", "gif");
+        extensions.put("com.adobe.pdf", "pdf");
+    }
+
+    private static final Set<String> images = new HashSet<>(Arrays.asList(
+        "public.jpeg", "public.png", "public.heic", "public.tiff",
+        "com.compuserve.gif"));
+
+    private final File media;
+    private final File dir;
+    private final ExecutorService pool;
+    // uuid -> name of the copy in dir, or null if there's no file
+    private final ConcurrentMap<String, Future<String>> copies =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Copy attachments from the media directory to the Attachments
+     * directory in root, using the number of threads.
+     */
+    public Attachments(File media, File root, int threads) {
+        this.media = media;
+        this.dir = new File(root, DIR);
+        this.pool = Executors.newFixedThreadPool(threads,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "attachments");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Start copying the attachment, if it hasn't been already.
+     */
+    public void prefetch(final UuidStyle us) {
+        if (copies.containsKey(us.uuid))
+            return;
+        FutureTask<String> task = new FutureTask<>(new Callable<String>() {
+            public String call() throws IOException {
+                return copy(us);
+            }
+        });
+        if (copies.putIfAbsent(us.uuid, task) == null)
+            pool.execute(task);
+    }
+
+    /**
+     * Return the path of the copy of the attachment, relative to the
+     * output directory, waiting for it to be copied if necessary,
+     * or null if there's no attachment file.  If the attachment
+     * can't be copied, the error is reported and null is returned,
+     * so the rest of the note, and the other notes, are still saved.
+     */
+    public String get(UuidStyle us) throws IOException {
+        prefetch(us);
+        try {
+            String name = copies.get(us.uuid).get();
+            return name != null ? DIR + "/" + name : null;
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            Throwable t = ex.getCause();
+            err("Can't copy attachment %s: %s", us.uuid,
+                t instanceof IOException ? t.getMessage() : t.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Is the attachment an image?
+     */
+    public static boolean isImage(UuidStyle us) {
+        return images.contains(us.type);
+    }
+
+    /**
+     * Wait for all the copies to finish.
+     */
+    public void close() throws IOException {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Copy the attachment, if there is one, returning the name of
+     * the copy.
+     */
+    private String copy(UuidStyle us) throws IOException {
+        File src = find(us.uuid);
+        if (src == null)
+            return null;
+        String name = hash(src);
+        String ext = extension(src.getName());
+        if (ext == null)
+            ext = extensions.get(us.type);
+        if (ext != null)
+            name += "." + ext;
+
+        File dst = new File(dir, name);
+        if (dst.exists())
+            return name;        // same content, already copied
+        dir.mkdirs();
+        // copy to a temporary file so no one sees a partial copy
+        File tmp = File.createTempFile(".copy", null, dir);
+        try (FileChannel in = FileChannel.open(src.toPath(),
+                                    StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(tmp.toPath(),
+                                    StandardOpenOption.WRITE)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; ) {
+                long n = in.transferTo(pos, size - pos, out);
+                // nothing copied, e.g., the file got shorter
+                // while it was being copied, so don't loop forever
+                if (n == 0)
+                    throw new IOException("can't copy all of " + src);
+                pos += n;
+            }
+        } catch (IOException ex) {
+            tmp.delete();
+            throw ex;
+        }
+        try {
+            Files.move(tmp.toPath(), dst.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            tmp.delete();
+            if (!dst.exists())
+                throw ex;
+            // another thread copied the same content
+        }
+        return name;
+    }
+
+    /**
+     * Find the file for the attachment.
+     */
+    private File find(String uuid) {
+        if (uuid.indexOf('/') >= 0 || uuid.startsWith("."))
+            return null;
+        File f = new File(media, uuid);
+        if (f.isFile())
+            return f;
+        File[] files = f.listFiles();
+        if (files == null)
+            return null;
+        for (File ff : files)
+            if (ff.isFile() && !ff.getName().startsWith("."))
+                return ff;
+        return null;
+    }
+
+    /**
+     * Return the SHA-256 hash of the file content, as a hex string.
+     * The file is read through a memory map.
+     */
+    private static String hash(File f) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        try (FileChannel in = FileChannel.open(f.toPath(),
+                                    StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; pos += CHUNK) {
+                MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY,
+                                        pos, Math.min(CHUNK, size - pos));
+                md.update(buf);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest())
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+    private static String extension(String name) {
+        int i = name.lastIndexOf('.');
+        if (i <= 0 || i == name.length() - 1)
+            return null;
+        return name.substring(i + 1).toLowerCase();
+    }
+
+    private static void err(String s, Object... args) {
+        System.out.printf("ERR: " + s, args);
+        System.out.println();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.Arrays;
+
+/**
+ * The attribute runs of a note; for each run, the number of characters
+ * of text it applies to and the set of styles that apply.
+ *
+ * The runs are stored in primitive arrays.  Each distinct combination
+ * of styles (a style set) is stored once per note, and runs refer to
+ * it by id, so a note with many runs doesn't need any objects per run.
+ * The offsets of the runs are kept as prefix sums, for random access.
+ */
+public class AttributeRuns {
+    private static final Style[] NO_STYLES = new Style[0];
+
+    private int nruns;
+    private int[] styleIds;
+    private int[] offsets;                  // offsets[nruns] is total length
+
+    private Style[][] sets = new Style[8][];
+    private int nsets;
+    private int[] hashes = new int[8];
+    private int[] table = new int[16];      // open addressing, set id + 1
+
+    public AttributeRuns() {
+        this(16);
+    }
+
+    public AttributeRuns(int capacity) {
+        styleIds = new int[capacity];
+        offsets = new int[capacity + 1];
+    }
+
+    /**
+     * Add a run with the first n styles in the array.
+     * The array isn't retained, so it can be reused by the caller.
+     */
+    public void add(int len, Style[] styles, int n) {
+        if (nruns == styleIds.length) {
+            int cap = nruns * 2;
+            styleIds = Arrays.copyOf(styleIds, cap);
+            offsets = Arrays.copyOf(offsets, cap + 1);
+        }
+        styleIds[nruns] = styleSet(styles, n);
+        offsets[nruns + 1] = offsets[nruns] + len;
+        nruns++;
+    }
+
+    /**
+     * The number of runs.
+     */
+    public int size() {
+        return nruns;
+    }
+
+    /**
+     * The offset in the text of the start of run i.
+     * offset(size()) is the total length of the runs.
+     */
+    public int offset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * The id of the style set of run i.
+     */
+    public int styleId(int i) {
+        return styleIds[i];
+    }
+
+    /**
+     * The number of distinct style sets.
+     */
+    public int styleSets() {
+        return nsets;
+    }
+
+    /**
+     * The styles in the style set.
+     * The array must not be modified.
+     */
+    public Style[] styleSet(int id) {
+        return sets[id];
+    }
+
+    /**
+     * Return the id of the style set, adding it if necessary.
+     */
+    private int styleSet(Style[] styles, int n) {
+        int h = 1;
+        for (int i = 0; i < n; i++)
+            h = h * 31 + styles[i].hashCode();
+        int mask = table.length - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id < 0)
+                break;
+            if (hashes[id] == h && same(sets[id], styles, n))
+                return id;
+        }
+
+        if (nsets == sets.length) {
+            sets = Arrays.copyOf(sets, nsets * 2);
+            hashes = Arrays.copyOf(hashes, nsets * 2);
+        }
+        int id = nsets++;
+        sets[id] = n == 0 ? NO_STYLES : Arrays.copyOf(styles, n);
+        hashes[id] = h;
+        if (nsets * 2 > table.length)
+            rehash();
+        else
+            insert(id);
+        return id;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        for (int id = 0; id < nsets; id++)
+            insert(id);
+    }
+
+    private void insert(int id) {
+        int mask = table.length - 1;
+        int slot = hashes[id] & mask;
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = id + 1;
+    }
+
+    private static boolean same(Style[] set, Style[] styles, int n) {
+        if (set.length != n)
+            return false;
+        for (int i = 0; i < n; i++)
+            if (set[i] != styles[i] && !set[i].equals(styles[i]))
+                return false;
+        return true;
+    }
+}
@@ -33,18 +33,26 @@
  * A checklist paragraph style.
  */
 public class ChecklistStyle extends ListStyle {
-    public boolean checked;
+    public final boolean checked;
 
     public ChecklistStyle(boolean checked, int indent) {
         super(CHECKLIST, indent);
         this.checked = checked;
     }
 
+    public boolean sameParagraph(ParagraphStyle to) {
+        // note that "checked" doesn't matter, it's the same list
+        return to instanceof ChecklistStyle && super.sameParagraph(to);
+    }
+
     public boolean equals(Object o) {
-        if (!(o instanceof ChecklistStyle))
+        if (!super.equals(o))
             return false;
         ChecklistStyle to = (ChecklistStyle)o;
-        // note that "checked" doesn't count in equality
-        return super.equals(o);
+        return checked == to.checked;
+    }
+
+    public int hashCode() {
+        return super.hashCode() * 2 + (checked ? 1 : 0);
     }
 }
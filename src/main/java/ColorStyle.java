@@ -35,7 +35,7 @@ import java.awt.Color;
  * A color style.
  */
 public class ColorStyle extends Style {
-    public Color color;
+    public final Color color;
 
     public ColorStyle(Color color) {
         super();
@@ -48,4 +48,8 @@ public class ColorStyle extends Style {
         ColorStyle to = (ColorStyle)o;
         return eq(color, to.color);
     }
+
+    public int hashCode() {
+        return hash(color);
+    }
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A staged pipeline for exporting notes.
+ *
+ * The caller is the reader stage; it submits each item in order.
+ * A pool of worker threads processes (decodes and renders) the items
+ * and a single writer thread writes the results, in the same order
+ * the items were submitted, so the output doesn't depend on the number
+ * of threads used.  All the queues between the stages are bounded.
+ *
+ * With only one thread, each item is processed and written by the
+ * caller when it's submitted.
+ */
+public class ExportPipeline<T, R> {
+
+    /**
+     * The processing stage.
+     */
+    public interface Worker<T, R> {
+        R process(T item) throws Exception;
+
+        /**
+         * Called in each worker thread when it's done processing
+         * items, to free anything it kept for the thread.
+         */
+        void exit();
+    }
+
+    /**
+     * The writing stage.
+     */
+    public interface Writer<T, R> {
+        void write(T item, R result) throws Exception;
+    }
+
+    /**
+     * An item moving through the pipeline.
+     */
+    private static class Task<T, R> {
+        final long seq;
+        final T item;
+        R result;
+        Throwable failure;
+
+        Task(long seq, T item) {
+            this.seq = seq;
+            this.item = item;
+        }
+    }
+
+    private final Worker<T, R> worker;
+    private final Writer<T, R> writer;
+    private final int nthreads;
+    private BlockingQueue<Task<T, R>> work;
+    private BlockingQueue<Task<T, R>> done;
+    private Semaphore inFlight;
+    private Thread[] workers;
+    private Thread writerThread;
+    private long nextSeq = 0;
+    private volatile Throwable failure;
+
+    // marks the end of the items
+    private final Task<T, R> eof = new Task<T, R>(-1, null);
+
+    /**
+     * Create a pipeline with the given number of worker threads.
+     */
+    public ExportPipeline(int nthreads, Worker<T, R> worker,
+                                Writer<T, R> writer) {
+        this.nthreads = nthreads;
+        this.worker = worker;
+        this.writer = writer;
+        if (nthreads <= 1)
+            return;
+
+        int qsize = nthreads * 4;
+        work = new ArrayBlockingQueue<>(qsize);
+        done = new ArrayBlockingQueue<>(qsize);
+        // limits the items waiting anywhere in the pipeline, including
+        // those waiting to be written in order
+        inFlight = new Semaphore(qsize * 2);
+
+        workers = new Thread[nthreads];
+        for (int i = 0; i < nthreads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "savenotes-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "savenotes-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Submit the next item.
+     */
+    public void submit(T item) throws IOException {
+        checkFailure();
+        if (nthreads <= 1) {
+            try {
+                writer.write(item, worker.process(item));
+            } catch (Exception ex) {
+                throw rethrow(ex);
+            }
+            return;
+        }
+        try {
+            inFlight.acquire();
+            work.put(new Task<T, R>(nextSeq++, item));
+        } catch (InterruptedException ex) {
+            throw new IOException("interrupted", ex);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Wait for all the submitted items to be written.
+     */
+    public void finish() throws IOException {
+        if (nthreads <= 1)
+            return;
+        try {
+            for (int i = 0; i < nthreads; i++)
+                work.put(eof);
+            writerThread.join();
+        } catch (InterruptedException ex) {
+            throw new IOException("interrupted", ex);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stop the pipeline without waiting for the items submitted so far;
+     * the items not yet written are skipped, and the threads are stopped.
+     * Call this if the reader stage fails before calling finish.  After
+     * finish it does nothing, so it can be called from a finally block.
+     */
+    public void abort() {
+        if (nthreads <= 1)
+            return;
+        fail(new IOException("export aborted"));
+        for (Thread t : workers)
+            t.interrupt();
+        writerThread.interrupt();
+        try {
+            for (Thread t : workers)
+                t.join();
+            writerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The worker stage.
+     */
+    private void work() {
+        try {
+            Task<T, R> t;
+            while ((t = work.take()) != eof) {
+                try {
+                    if (failure == null)
+                        t.result = worker.process(t.item);
+                } catch (Throwable ex) {
+                    t.failure = ex;
+                }
+                done.put(t);
+            }
+            done.put(eof);
+        } catch (InterruptedException ex) {
+            fail(ex);
+        } finally {
+            worker.exit();
+        }
+    }
+
+    /**
+     * The writer stage.
+     * Completed items are held until all previous items have
+     * been written.
+     */
+    private void write() {
+        Map<Long, Task<T, R>> pending = new HashMap<>();
+        long seq = 0;
+        int running = nthreads;
+        try {
+            while (running > 0) {
+                Task<T, R> t = done.take();
+                if (t == eof) {
+                    running--;
+                    continue;
+                }
+                pending.put(t.seq, t);
+                while ((t = pending.remove(seq)) != null) {
+                    seq++;
+                    try {
+                        if (t.failure != null)
+                            fail(t.failure);
+                        else if (failure == null)
+                            writer.write(t.item, t.result);
+                    } catch (Throwable ex) {
+                        fail(ex);
+                    }
+                    inFlight.release();
+                }
+            }
+        } catch (InterruptedException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Remember the first failure.
+     * The reader stops submitting items when it sees the failure,
+     * and the remaining items are skipped.
+     */
+    private synchronized void fail(Throwable ex) {
+        if (failure == null)
+            failure = ex;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw rethrow(failure);
+    }
+
+    private static IOException rethrow(Throwable ex) {
+        if (ex instanceof IOException)
+            return (IOException)ex;
+        if (ex instanceof RuntimeException)
+            throw (RuntimeException)ex;
+        if (ex instanceof Error)
+            throw (Error)ex;
+        return new IOException(ex);
+    }
+}
@@ -34,8 +34,8 @@
  * XXX - add baseline?
  */
 public class FontStyle extends Style {
-    public String name;
-    public float size;
+    public final String name;
+    public final float size;
 
     public FontStyle(String name, float size) {
         super();
@@ -49,4 +49,8 @@ public class FontStyle extends Style {
         FontStyle to = (FontStyle)o;
         return eq(name, to.name) && size == to.size;
     }
+
+    public int hashCode() {
+        return hash(name) * 31 + Float.floatToIntBits(size);
+    }
 }
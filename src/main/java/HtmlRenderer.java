@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.IOException;
+
+/**
+ * Render the text with HTML markup.
+ *
+ * XXX - could detect title/header plus font size to change "h" level.
+ * XXX - many more cases to handle below.
+ */
+public class HtmlRenderer extends NoteRenderer {
+    private static final String[] OPEN = new String[RenderProgram.NCODES];
+    private static final String[] CLOSE = new String[RenderProgram.NCODES];
+
+    static {
+        // UUID, URL, and FONT are opened by on()
+        CLOSE[RenderProgram.C_UUID] = "</INSERT>";
+        CLOSE[RenderProgram.C_URL] = "</a>";
+        CLOSE[RenderProgram.C_FONT] = "</font>";
+        OPEN[RenderProgram.C_BOLD] = "<b>";
+        CLOSE[RenderProgram.C_BOLD] = "</b>";
+        OPEN[RenderProgram.C_ITALIC] = "<i>";
+        CLOSE[RenderProgram.C_ITALIC] = "</i>";
+        OPEN[RenderProgram.C_UNDERLINE] = "<u>";
+        CLOSE[RenderProgram.C_UNDERLINE] = "</u>";
+        OPEN[RenderProgram.C_STRIKETHROUGH] = "<del>";
+        CLOSE[RenderProgram.C_STRIKETHROUGH] = "</del>";
+        // XXX - ColorStyle, now what?
+        OPEN[RenderProgram.C_UNKNOWN] = "<UNKNOWN>";
+        CLOSE[RenderProgram.C_UNKNOWN] = "</UNKNOWN>";
+    }
+
+    // how to escape chars in text and attribute values
+    private static final String[] ESCAPE = new String['>' + 1];
+
+    static {
+        ESCAPE['\n'] = "<br/>\n";
+        ESCAPE['"'] = "&quot;";
+        ESCAPE['&'] = "&amp;";
+        ESCAPE['\''] = "&#39;";
+        ESCAPE['<'] = "&lt;";
+        ESCAPE['>'] = "&gt;";
+    }
+
+    public HtmlRenderer() {
+        super(OPEN, CLOSE);
+    }
+
+    @Override
+    protected void paragraph(int transition, ParagraphStyle prev,
+                                ParagraphStyle ps) throws IOException {
+        switch (transition) {
+        case RenderProgram.INDENT:
+            // start new indented
+            paraStart(ps);
+            break;
+        case RenderProgram.OUTDENT:
+            // end previous indented
+            paraEnd(prev);
+            break;
+        case RenderProgram.CHANGE:
+            // terminate previous paragraph style
+            paraEnd(prev);
+
+            // start new paragraph style
+            paraStart(ps);
+            break;
+        }
+
+        if (out.endsWithNewline()) {
+            switch (ps.style) {
+            case ParagraphStyle.NONE:
+                leadingWhitespace();
+                break;
+            case ParagraphStyle.BULLET:
+            case ParagraphStyle.DASHED:
+            case ParagraphStyle.NUMBERED:
+                out.append("<li>");
+                break;
+            case ParagraphStyle.CHECKLIST:
+                ChecklistStyle cs = (ChecklistStyle)ps;
+                if (cs.checked)
+                    out.append("<li><input checked=\"\" " +
+                        "disabled=\"\" type=\"checkbox\">");
+                else
+                    out.append("<li><input disabled=\"\" " +
+                                "type=\"checkbox\">");
+                break;
+            }
+        }
+    }
+
+    @Override
+    protected void on(int code, Style s) throws IOException {
+        switch (code) {
+        case RenderProgram.C_UUID:
+            UuidStyle us = (UuidStyle)s;
+            if (startAttachment(us))
+                break;
+            out.append(String.format("<INSERT UUID %s, TYPE %s>",
+                                        us.uuid, us.type));
+            break;
+        case RenderProgram.C_URL:
+            out.append("<a href=\"");
+            escape(((UrlStyle)s).url);
+            out.append("\">");
+            break;
+        case RenderProgram.C_FONT:
+            // XXX - font name ignored for now
+            // XXX - is this the right way to handle non-integer sizes?
+            out.append("<font size=\"").
+                append(fontSize(((FontStyle)s).size)).append("\">");
+            break;
+        default:
+            super.on(code, s);
+        }
+    }
+
+    @Override
+    protected void off(int code, Style s) throws IOException {
+        if (code != RenderProgram.C_UUID || !endAttachment())
+            super.off(code, s);
+    }
+
+    @Override
+    protected void link(UuidStyle us, String path, String name)
+                                throws IOException {
+        if (Attachments.isImage(us)) {
+            out.append("<img src=\"");
+            escape(path);
+            out.append("\">");
+        } else {
+            out.append("<a href=\"");
+            escape(path);
+            out.append("\">");
+            escape(name);
+            out.append("</a>");
+        }
+    }
+
+    @Override
+    protected void table(Table t) throws IOException {
+        out.append("<table>\n");
+        for (int r = 0; r < t.rows(); r++) {
+            out.append("<tr>");
+            for (int c = 0; c < t.columns(); c++) {
+                out.append("<td>");
+                escape(t.cell(r, c), true);
+                out.append("</td>");
+            }
+            out.append("</tr>\n");
+        }
+        out.append("</table>\n");
+    }
+
+    /**
+     * Convert the plain text text[start] to text[end - 1] to html,
+     * escaping the special characters and replacing all the newlines
+     * with <br/>.
+     */
+    @Override
+    protected void text(int start, int end) throws IOException {
+        escape(start, end, ESCAPE);
+    }
+
+    /**
+     * Write an escaped attribute value.
+     */
+    private void escape(String value) throws IOException {
+        escape(value, false);
+    }
+
+    /**
+     * Write an escaped string, replacing the newlines with <br/>
+     * if br is true.
+     */
+    private void escape(String value, boolean br) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((br || c != '\n') && c < ESCAPE.length && ESCAPE[c] != null)
+                out.write(ESCAPE[c]);
+            else
+                out.write(c);
+        }
+    }
+
+    @Override
+    protected void endLine() throws IOException {
+        if (needNewline) {
+            switch (curps.style) {
+            case ParagraphStyle.NONE:
+                out.append("\n<br/>\n");
+                break;
+            case ParagraphStyle.BULLET:
+            case ParagraphStyle.DASHED:
+            case ParagraphStyle.NUMBERED:
+            case ParagraphStyle.CHECKLIST:
+                out.append("</li>\n");
+                break;
+            }
+        }
+    }
+
+    /**
+     * Close any open element.
+     */
+    @Override
+    protected void finish() throws IOException {
+        switch (curps.style) {
+        case ParagraphStyle.NONE:
+        case ParagraphStyle.TITLE:
+        case ParagraphStyle.HEADING:
+        case ParagraphStyle.MONO:
+        case ParagraphStyle.BULLET:
+        case ParagraphStyle.DASHED:
+        case ParagraphStyle.CHECKLIST:
+        case ParagraphStyle.NUMBERED:
+            // XXX - doesn't handle indent
+            paraEnd(curps);
+            break;
+        default:
+        }
+    }
+
+    /**
+     * Start paragraph style.
+     */
+    private void paraStart(ParagraphStyle ps) throws IOException {
+        switch (ps.style) {
+        case ParagraphStyle.NONE:
+            out.append("<p>\n");
+            break;
+        case ParagraphStyle.TITLE:
+            out.append("<h1>\n");
+            break;
+        case ParagraphStyle.HEADING:
+            out.append("<h2>\n");
+            break;
+        case ParagraphStyle.MONO:
+            out.append("<code>\n");
+            break;
+        case ParagraphStyle.BULLET:
+        case ParagraphStyle.DASHED:
+        case ParagraphStyle.CHECKLIST:
+            out.append("<ul>\n");
+            break;
+        case ParagraphStyle.NUMBERED:
+            out.append("<ol>\n");
+            break;
+        default:
+            // XXX - not handled yet
+            out.append(String.format("<div style=\"%d\">", ps.style));
+        }
+    }
+
+    /**
+     * End paragraph style.
+     */
+    private void paraEnd(ParagraphStyle ps) throws IOException {
+        switch (ps.style) {
+        case ParagraphStyle.NONE:
+            if (out.length() > 0)
+                out.append("</p>\n");
+            break;
+        case ParagraphStyle.TITLE:
+            out.append("</h1>\n");
+            break;
+        case ParagraphStyle.HEADING:
+            out.append("</h2>\n");
+            break;
+        case ParagraphStyle.MONO:
+            out.append("</code>\n");
+            break;
+        case ParagraphStyle.BULLET:
+        case ParagraphStyle.DASHED:
+        case ParagraphStyle.CHECKLIST:
+            out.append("</ul>\n");
+            break;
+        case ParagraphStyle.NUMBERED:
+            out.append("</ol>\n");
+            break;
+        default:
+            out.append("</div>\n");
+        }
+    }
+}
@@ -33,18 +33,29 @@
  * A list paragraph style.
  */
 public class ListStyle extends ParagraphStyle {
-    public int indent;
+    public final int indent;
 
     public ListStyle(int style, int indent) {
         super(style);
         this.indent = indent;
     }
 
+    public boolean sameParagraph(ParagraphStyle to) {
+        if (!(to instanceof ListStyle))
+            return false;
+        ListStyle tl = (ListStyle)to;
+        return indent == tl.indent && super.sameParagraph(to);
+    }
+
     public boolean equals(Object o) {
-        if (!(o instanceof ListStyle))
+        if (!super.equals(o))
             return false;
         ListStyle to = (ListStyle)o;
-        return this.indent == to.indent && super.equals(o);
+        return this.indent == to.indent;
+    }
+
+    public int hashCode() {
+        return super.hashCode() * 31 + indent;
     }
 
     public String toString() {
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The manifest of notes saved by a previous run, used to save only
+ * the notes that have changed since then.
+ * The manifest is stored in the output directory, one line per saved
+ * file (a note may be saved in several formats), with tab separated fields.
+ */
+public class Manifest {
+    public static final String NAME = ".savenotes-manifest";
+
+    /**
+     * An entry for a single saved note.
+     */
+    public static class Entry {
+        public final int pk;
+        public final String noteID;     // ZIDENTIFIER
+        public final double modified;   // ZMODIFICATIONDATE1
+        public final String format;     // the file name extension
+        public final String path;       // relative to the output directory
+
+        public Entry(int pk, String noteID, double modified, String format,
+                        String path) {
+            this.pk = pk;
+            this.noteID = noteID;
+            this.modified = modified;
+            this.format = format;
+            this.path = path;
+        }
+
+        /**
+         * Is this the entry for the same note, and has the note not been
+         * modified since it was saved in the same format?
+         */
+        public boolean isCurrent(String noteID, double modified,
+                                    String format) {
+            return eq(this.noteID, noteID) && this.modified == modified &&
+                this.format.equals(format);
+        }
+
+        /**
+         * Was the note saved in the named folder?
+         */
+        public boolean inFolder(String folder) {
+            return path.startsWith(folder + "/") &&
+                path.indexOf('/', folder.length() + 1) < 0;
+        }
+    }
+
+    // sorted by pk and format, so the manifest file is stable
+    private final Map<Integer, Map<String, Entry>> entries = new TreeMap<>();
+
+    /**
+     * Load the manifest from the directory.
+     * If there's no manifest, return an empty manifest.
+     */
+    public static Manifest load(File dir) throws IOException {
+        Manifest m = new Manifest();
+        File f = new File(dir, NAME);
+        if (!f.exists())
+            return m;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                new FileInputStream(f), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                // path is last since it might contain anything
+                String[] fields = line.split("\t", 5);
+                if (fields.length != 5)
+                    throw new IOException("bad manifest line: " + line);
+                m.put(new Entry(Integer.parseInt(fields[0]),
+                    fields[1].isEmpty() ? null : fields[1],
+                    Double.parseDouble(fields[2]), fields[3], fields[4]));
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException("bad manifest " + f, ex);
+        }
+        return m;
+    }
+
+    /**
+     * Save the manifest in the directory.
+     * The new manifest replaces the old one only once it's complete.
+     */
+    public synchronized void save(File dir) throws IOException {
+        File f = new File(dir, NAME);
+        File tmp = new File(dir, NAME + ".tmp");
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            for (Entry e : entries()) {
+                w.write(Integer.toString(e.pk));
+                w.write('\t');
+                w.write(e.noteID != null ? e.noteID : "");
+                w.write('\t');
+                w.write(Double.toString(e.modified));
+                w.write('\t');
+                w.write(e.format);
+                w.write('\t');
+                w.write(e.path);
+                w.write('\n');
+            }
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("can't rename " + tmp + " to " + f);
+        }
+    }
+
+    public synchronized Entry get(int pk, String format) {
+        Map<String, Entry> m = entries.get(pk);
+        return m != null ? m.get(format) : null;
+    }
+
+    /**
+     * Return a copy of the entries for the note, in all formats.
+     */
+    public synchronized Collection<Entry> get(int pk) {
+        Map<String, Entry> m = entries.get(pk);
+        return m != null ? new ArrayList<>(m.values()) :
+                            Collections.<Entry>emptyList();
+    }
+
+    public synchronized void put(Entry e) {
+        Map<String, Entry> m = entries.get(e.pk);
+        if (m == null) {
+            m = new TreeMap<>();
+            entries.put(e.pk, m);
+        }
+        m.put(e.format, e);
+    }
+
+    /**
+     * Return a copy of all the entries.
+     */
+    public synchronized Collection<Entry> entries() {
+        Collection<Entry> all = new ArrayList<>();
+        for (Map<String, Entry> m : entries.values())
+            all.addAll(m.values());
+        return all;
+    }
+
+    private static boolean eq(Object s1, Object s2) {
+        return s1 == s2 || (s1 != null && s1.equals(s2));
+    }
+}
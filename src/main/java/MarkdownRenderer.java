@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.IOException;
+
+/**
+ * Render the text with markdown markup.
+ *
+ * XXX - many more cases to handle below.
+ */
+public class MarkdownRenderer extends NoteRenderer {
+    private static final String[] OPEN = new String[RenderProgram.NCODES];
+    private static final String[] CLOSE = new String[RenderProgram.NCODES];
+
+    static {
+        // UUID, URL, and FONT are opened by on(), URL is closed by off()
+        CLOSE[RenderProgram.C_FONT] = "</font>";
+        OPEN[RenderProgram.C_BOLD] = "**";
+        CLOSE[RenderProgram.C_BOLD] = "**";
+        OPEN[RenderProgram.C_ITALIC] = "_";
+        CLOSE[RenderProgram.C_ITALIC] = "_";
+        // XXX - works for GitHub
+        // https://stackoverflow.com/a/47354053/1040885
+        OPEN[RenderProgram.C_UNDERLINE] = "<ins>";
+        CLOSE[RenderProgram.C_UNDERLINE] = "</ins>";
+        // GitHub-flavored markdown
+        // https://guides.github.com/features/mastering-markdown/#GitHub-flavored-markdown
+        OPEN[RenderProgram.C_STRIKETHROUGH] = "~~";
+        CLOSE[RenderProgram.C_STRIKETHROUGH] = "~~";
+        // XXX - ColorStyle, now what?
+        OPEN[RenderProgram.C_UNKNOWN] = "<UNKNOWN>";
+        CLOSE[RenderProgram.C_UNKNOWN] = "</UNKNOWN>";
+    }
+
+    // the markdown metacharacters, escaped with a backslash
+    private static final boolean[] ESCAPE = new boolean[128];
+
+    static {
+        for (char c : "\\`*_[]<".toCharArray())
+            ESCAPE[c] = true;
+    }
+
+    private boolean divOpen;    // unknown paragraph style started this line
+
+    public MarkdownRenderer() {
+        super(OPEN, CLOSE);
+    }
+
+    @Override
+    protected void paragraph(int transition, ParagraphStyle prev,
+                                ParagraphStyle ps) throws IOException {
+        if (transition != RenderProgram.SAME) {
+            // terminate previous paragraph style
+            // XXX - not for first paragraph
+            switch (prev.style) {
+            case ParagraphStyle.MONO:
+                out.append("```\n");
+                break;
+            default:
+                if (!out.endsWithNewline())
+                    out.append("\n");
+            }
+
+            // start new paragraph style
+            switch (ps.style) {
+            case ParagraphStyle.NONE:
+                ensureBlankLine();
+                break;
+            case ParagraphStyle.TITLE:
+                out.append("# ");
+                break;
+            case ParagraphStyle.HEADING:
+                out.append("## ");
+                break;
+            case ParagraphStyle.MONO:
+                ensureBlankLine();
+                out.append("```\n");
+                break;
+            case ParagraphStyle.BULLET:
+            case ParagraphStyle.DASHED:
+            case ParagraphStyle.NUMBERED:
+            case ParagraphStyle.CHECKLIST:
+                break;
+            default:
+                // XXX - not handled yet
+                out.append(String.format("<div style=\"%d\">", ps.style));
+                divOpen = true;
+            }
+        }
+
+        if (out.endsWithNewline()) {
+            switch (ps.style) {
+            case ParagraphStyle.NONE:
+                // if previous line was also a plain line,
+                // need to add a hard line break
+                // XXX - Not all markdown displayers agree on
+                // how to force a line break.  This works for
+                // GitHub Flavored Markdown, but not MacDown.
+                // Should expose some properties or options to
+                // control this behavior.
+                if (prev.style == ParagraphStyle.NONE &&
+                        lineEnd > lineStart && !out.endsWithBlankLine()) {
+                    out.removeLast();
+                    out.append("\\\n");
+                }
+                leadingWhitespace();
+                break;
+            case ParagraphStyle.BULLET:
+                addIndent(((ListStyle)ps).indent);
+                out.append("* ");
+                break;
+            case ParagraphStyle.DASHED:
+                addIndent(((ListStyle)ps).indent);
+                out.append("- ");
+                break;
+            case ParagraphStyle.NUMBERED:
+                addIndent(((ListStyle)ps).indent);
+                // XXX - valid markdown, but ugly
+                out.append("1. ");
+                break;
+            case ParagraphStyle.CHECKLIST:
+                ChecklistStyle cs = (ChecklistStyle)ps;
+                addIndent(cs.indent);
+                if (cs.checked)
+                    out.append("- [x] ");
+                else
+                    out.append("- [ ] ");
+                break;
+            }
+        }
+    }
+
+    @Override
+    protected void on(int code, Style s) throws IOException {
+        switch (code) {
+        case RenderProgram.C_UUID:
+            UuidStyle us = (UuidStyle)s;
+            if (startAttachment(us))
+                break;
+            out.append(String.format("<INSERT UUID %s, TYPE %s>",
+                                        us.uuid, us.type));
+            break;
+        case RenderProgram.C_URL:
+            out.append("[");
+            break;
+        case RenderProgram.C_FONT:
+            // XXX - font name ignored for now
+            // XXX - is this the right way to handle non-integer sizes?
+            out.append("<font size=\"").
+                append(fontSize(((FontStyle)s).size)).append("\">");
+            break;
+        default:
+            super.on(code, s);
+        }
+    }
+
+    @Override
+    protected void off(int code, Style s) throws IOException {
+        switch (code) {
+        case RenderProgram.C_PARA:
+            if (divOpen) {
+                out.append("</div>");
+                divOpen = false;
+            }
+            break;
+        case RenderProgram.C_UUID:
+            endAttachment();
+            break;
+        case RenderProgram.C_URL:
+            out.append("](").append(((UrlStyle)s).url).append(")");
+            break;
+        default:
+            super.off(code, s);
+        }
+    }
+
+    @Override
+    protected void link(UuidStyle us, String path, String name)
+                                throws IOException {
+        if (Attachments.isImage(us))
+            out.append("![](").append(path).append(")");
+        else
+            out.append("[").append(name).append("](").append(path).append(")");
+    }
+
+    /**
+     * Write the table, using the first row as the header row.
+     * XXX - the line before the table may end with a useless
+     * hard line break.
+     */
+    @Override
+    protected void table(Table t) throws IOException {
+        ensureBlankLine();
+        for (int r = 0; r < t.rows(); r++) {
+            out.append("|");
+            for (int c = 0; c < t.columns(); c++) {
+                out.append(' ');
+                cell(t.cell(r, c));
+                out.append(" |");
+            }
+            out.append('\n');
+            if (r == 0) {
+                out.append("|");
+                for (int c = 0; c < t.columns(); c++)
+                    out.append(" --- |");
+                out.append('\n');
+            }
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Write the text of a table cell, escaping the markdown
+     * metacharacters and the column separator.  A cell can't
+     * contain a newline so use an html line break.
+     */
+    private void cell(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\n')
+                out.write("<br>");
+            else {
+                if (c == '|' || (c < ESCAPE.length && ESCAPE[c]))
+                    out.write('\\');
+                out.write(c);
+            }
+        }
+    }
+
+    /**
+     * Convert the plain text text[start] to text[end - 1] to markdown,
+     * escaping the markdown metacharacters, except in a code block.
+     * Turn newlines into hard line breaks.
+     * (Backslash at end of line only works if following
+     * line is not empty.)
+     * XXX - "#", "-", "1." etc. at the start of a line aren't escaped.
+     */
+    @Override
+    protected void text(int start, int end) throws IOException {
+        boolean code = curps.style == ParagraphStyle.MONO;
+        int s = start;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                if (i + 1 < end && text.charAt(i + 1) != '\n') {
+                    out.write(text, s, i - s);
+                    out.write("\\\n");
+                    s = i + 1;
+                }
+            } else if (!code && c < ESCAPE.length && ESCAPE[c]) {
+                out.write(text, s, i - s);
+                out.write('\\');
+                s = i;          // write c with the following text
+            }
+        }
+        out.write(text, s, end - s);
+    }
+
+    private void ensureBlankLine() throws IOException {
+        if (out.length() > 0 && !out.endsWithNewline())
+            out.append("\n\n");
+        else if (out.length() >= 2 && !out.endsWithBlankLine())
+            out.append('\n');
+    }
+
+    private void addIndent(int indent) throws IOException {
+        while (indent-- > 0)
+            out.append("  ");
+    }
+}
@@ -29,25 +29,16 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
-import java.util.List;
-import java.util.ArrayList;
-
 /**
- * An attribute cover a range of text and contains styles for the text.
+ * The decoded content of a note; the plain text and the attribute
+ * runs that apply to the text.
  */
-public class Attribute {
-    private int len;     // number of characters this attribute applies to
-    private List<Style> styles = new ArrayList<>();
-
-    public Attribute(int len) {
-        this.len = len;
-    }
-
-    public int length() {
-        return len;
-    }
+public class NoteContent {
+    public final String text;
+    public final AttributeRuns attributes;      // null if not decoded
 
-    public List<Style> styles() {
-        return styles;
+    public NoteContent(String text, AttributeRuns attributes) {
+        this.text = text;
+        this.attributes = attributes;
     }
 }
@@ -0,0 +1,634 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A full text index of the saved notes, stored in the output directory,
+ * and searched by "savenotes search query".
+ *
+ * The index is an inverted index:  for each term (a lower case word),
+ * the list of notes that contain the term, and the positions of the
+ * term in each note, so phrases can be found.  The index file is
+ * memory mapped for searching.  It contains, in order,
+ *
+ *   a header, giving the number of notes and terms and the offsets of
+ *     the sections (big endian ints and longs);
+ *   the notes, each the note's pk and the path of its saved file;
+ *   the postings, for each term, for each note containing the term,
+ *     the note number (as the difference from the previous one), the
+ *     number of times the term appears, and its positions (as
+ *     differences);
+ *   the terms, in sorted order, each the term, the number of notes,
+ *     and the offset and length of its postings; and
+ *   the offsets of the terms, as ints, for binary searching.
+ *
+ * All the numbers except those in the header are variable length
+ * integers, as in the archived object format.
+ *
+ * In incremental mode only the notes that have been saved again
+ * are added to the index; the entries for the other notes are
+ * copied from the previous index.
+ */
+public class NoteIndex {
+    public static final String NAME = ".savenotes-index";
+
+    private static final int MAGIC = 0x534e4958;        // "SNIX"
+    private static final int VERSION = 1;
+    private static final int HEADER = 48;
+    private static final int MAX_TERM = 64;     // longer words are skipped
+
+    // the notes added by this run, numbered in the order added
+    private final List<Integer> pks = new ArrayList<>();
+    private final List<String> paths = new ArrayList<>();
+    private final Set<Integer> added = new HashSet<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    /**
+     * The encoded postings for a term.
+     */
+    private static class Postings {
+        byte[] buf = new byte[16];
+        int len;
+        int last = -1;          // the last note number
+        int notes;
+
+        /**
+         * Add the note, with its npos positions starting at
+         * positions[off].
+         */
+        void add(int note, int[] positions, int off, int npos) {
+            put(note - last);
+            put(npos);
+            int prev = 0;
+            for (int i = off; i < off + npos; i++) {
+                put(positions[i] - prev);
+                prev = positions[i];
+            }
+            last = note;
+            notes++;
+        }
+
+        private void put(int v) {
+            if (len + 5 > buf.length)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            while ((v & ~0x7f) != 0) {
+                buf[len++] = (byte)((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte)v;
+        }
+    }
+
+    /**
+     * Split the text into terms, returning the positions of each term,
+     * preceded by the number of positions.
+     * A term is a sequence of letters and digits, in lower case.
+     * Called from the worker threads.
+     */
+    public static Map<String, int[]> tokenize(String text) {
+        Map<String, int[]> terms = new HashMap<>();
+        int pos = 0;
+        int n = text.length();
+        for (int i = 0; i < n; ) {
+            int c = text.codePointAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                i += Character.charCount(c);
+                continue;
+            }
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(c = text.codePointAt(i)))
+                i += Character.charCount(c);
+            if (i - start <= MAX_TERM) {
+                String term = text.substring(start, i).toLowerCase(Locale.ROOT);
+                // positions[0] is the count
+                int[] p = terms.get(term);
+                if (p == null) {
+                    p = new int[4];
+                    terms.put(term, p);
+                } else if (p[0] + 1 == p.length)
+                    terms.put(term, p = Arrays.copyOf(p, p.length * 2));
+                p[++p[0]] = pos;
+            }
+            pos++;
+        }
+        return terms;
+    }
+
+    /**
+     * Split the query text into terms, in order.
+     */
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int n = text.length();
+        for (int i = 0; i < n; ) {
+            int c = text.codePointAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                i += Character.charCount(c);
+                continue;
+            }
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(c = text.codePointAt(i)))
+                i += Character.charCount(c);
+            words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        return words;
+    }
+
+    /**
+     * Add the note, with the terms returned by tokenize.
+     * Notes are added by the writer thread.
+     */
+    public synchronized void add(int pk, String path, Map<String, int[]> terms) {
+        int note = pks.size();
+        pks.add(pk);
+        paths.add(path);
+        added.add(pk);
+        for (Map.Entry<String, int[]> e : terms.entrySet()) {
+            Postings p = postings.get(e.getKey());
+            if (p == null) {
+                p = new Postings();
+                postings.put(e.getKey(), p);
+            }
+            int[] pos = e.getValue();
+            p.add(note, pos, 1, pos[0]);
+        }
+    }
+
+    /**
+     * Was the note added by this run?
+     */
+    public synchronized boolean contains(int pk) {
+        return added.contains(pk);
+    }
+
+    /**
+     * Save the index in the directory.  The notes in the previous index
+     * (if not null) whose pks are in keep are included, with the path
+     * given by keep.  The new index replaces the old one only once it's
+     * complete.
+     */
+    public synchronized void save(File dir, Reader old,
+                                Map<Integer, String> keep) throws IOException {
+        // number the notes kept from the old index after the new notes
+        int[] renumber = new int[old != null ? old.notes() : 0];
+        List<Integer> allPks = new ArrayList<>(pks);
+        List<String> allPaths = new ArrayList<>(paths);
+        for (int i = 0; i < renumber.length; i++) {
+            String path = keep.get(old.pk(i));
+            if (path != null && !added.contains(old.pk(i))) {
+                renumber[i] = allPks.size();
+                allPks.add(old.pk(i));
+                allPaths.add(path);
+            } else
+                renumber[i] = -1;
+        }
+
+        // all the terms, in order, and where they are in the old index
+        TreeMap<String, Integer> terms = new TreeMap<>();
+        for (String t : postings.keySet())
+            terms.put(t, -1);
+        for (int i = 0; old != null && i < old.terms(); i++)
+            terms.put(old.term(i), i);
+
+        File f = new File(dir, NAME);
+        File tmp = new File(dir, NAME + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            Output out = new Output(new BufferedOutputStream(fos, 65536));
+            out.write(new byte[HEADER]);
+
+            long notesOff = out.count;
+            for (int i = 0; i < allPks.size(); i++) {
+                out.varint(allPks.get(i));
+                out.string(allPaths.get(i));
+            }
+
+            long postingsOff = out.count;
+            List<String> written = new ArrayList<>();
+            List<long[]> info = new ArrayList<>();  // notes, offset, length
+            for (Map.Entry<String, Integer> e : terms.entrySet()) {
+                Postings p = postings.get(e.getKey());
+                if (p == null)
+                    p = new Postings();
+                if (e.getValue() >= 0)
+                    old.copyPostings(e.getValue(), renumber, p);
+                if (p.notes == 0)
+                    continue;           // only in deleted notes
+                written.add(e.getKey());
+                info.add(new long[] { p.notes, out.count - postingsOff, p.len });
+                out.write(p.buf, 0, p.len);
+            }
+
+            long termsOff = out.count;
+            int[] offsets = new int[written.size()];
+            for (int i = 0; i < written.size(); i++) {
+                offsets[i] = (int)(out.count - termsOff);
+                long[] in = info.get(i);
+                out.string(written.get(i));
+                out.varint((int)in[0]);
+                out.varlong(in[1]);
+                out.varint((int)in[2]);
+            }
+
+            long indexOff = out.count;
+            for (int off : offsets)
+                out.int32(off);
+            out.flush();
+
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            h.putInt(MAGIC).putInt(VERSION).
+                putInt(allPks.size()).putInt(written.size()).
+                putLong(notesOff).putLong(postingsOff).
+                putLong(termsOff).putLong(indexOff);
+            h.flip();
+            fos.getChannel().write(h, 0);
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("can't rename " + tmp + " to " + f);
+        }
+    }
+
+    /**
+     * Open the index in the directory, or return null if there isn't one.
+     */
+    public static Reader open(File dir) throws IOException {
+        File f = new File(dir, NAME);
+        if (!f.exists())
+            return null;
+        return new Reader(f);
+    }
+
+    /**
+     * An OutputStream that counts the bytes written
+     * and writes the index numbers.
+     */
+    private static class Output extends FilterOutputStream {
+        long count;
+
+        Output(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        void varint(int v) throws IOException {
+            varlong(v & 0xffffffffL);
+        }
+
+        void varlong(long v) throws IOException {
+            while ((v & ~0x7fL) != 0) {
+                write((int)((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            write((int)v);
+        }
+
+        void string(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length);
+            write(b, 0, b.length);
+        }
+
+        void int32(int v) throws IOException {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+    }
+
+    /**
+     * A memory mapped index file.
+     */
+    public static class Reader {
+        private final ByteBuffer buf;
+        private final int notes;
+        private final int terms;
+        private final int postingsOff;
+        private final int termsOff;
+        private final int indexOff;
+        private final int[] pks;
+        private final String[] paths;
+        private final Set<Integer> pkSet = new HashSet<>();
+        private int pos;                // for reading numbers
+
+        public Reader(File f) throws IOException {
+            try (FileChannel fc = new RandomAccessFile(f, "r").getChannel()) {
+                if (fc.size() > Integer.MAX_VALUE)
+                    throw new IOException("index too large: " + f);
+                buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            }
+            if (buf.limit() < HEADER || buf.getInt(0) != MAGIC ||
+                    buf.getInt(4) != VERSION)
+                throw new IOException("not a savenotes index: " + f);
+            notes = buf.getInt(8);
+            terms = buf.getInt(12);
+            int notesOff = (int)buf.getLong(16);
+            postingsOff = (int)buf.getLong(24);
+            termsOff = (int)buf.getLong(32);
+            indexOff = (int)buf.getLong(40);
+
+            pks = new int[notes];
+            paths = new String[notes];
+            pos = notesOff;
+            for (int i = 0; i < notes; i++) {
+                pks[i] = varint();
+                paths[i] = string();
+                pkSet.add(pks[i]);
+            }
+        }
+
+        /**
+         * Is the note in the index?
+         */
+        public boolean contains(int pk) {
+            return pkSet.contains(pk);
+        }
+
+        public int notes() {
+            return notes;
+        }
+
+        public int pk(int note) {
+            return pks[note];
+        }
+
+        public String path(int note) {
+            return paths[note];
+        }
+
+        public int terms() {
+            return terms;
+        }
+
+        /**
+         * Return the i'th term, in sorted order.
+         */
+        public String term(int i) {
+            pos = termsOff + buf.getInt(indexOff + 4 * i);
+            return string();
+        }
+
+        /**
+         * Return the index of the term, or -1 if it's not in the index.
+         */
+        public int find(String term) {
+            int lo = 0;
+            int hi = terms - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = term(mid).compareTo(term);
+                if (c < 0)
+                    lo = mid + 1;
+                else if (c > 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        /**
+         * Decode the postings for the i'th term, returning the notes
+         * that contain the term and, if positions isn't null, setting
+         * positions[n] to the positions in the n'th of those notes.
+         */
+        public int[] postings(int i, int[][][] positions) {
+            term(i);            // skip the term
+            int n = varint();
+            int start = postingsOff + (int)varlong();
+            varint();           // length
+            pos = start;
+            int[] notes = new int[n];
+            int[][] ps = positions != null ? new int[n][] : null;
+            int note = -1;
+            for (int k = 0; k < n; k++) {
+                note += varint();
+                notes[k] = note;
+                int npos = varint();
+                int[] p = ps != null ? new int[npos] : null;
+                int prev = 0;
+                for (int j = 0; j < npos; j++) {
+                    prev += varint();
+                    if (p != null)
+                        p[j] = prev;
+                }
+                if (ps != null)
+                    ps[k] = p;
+            }
+            if (positions != null)
+                positions[0] = ps;
+            return notes;
+        }
+
+        /**
+         * Add the postings for the i'th term to p, for the notes
+         * that are renumbered.
+         */
+        void copyPostings(int i, int[] renumber, Postings p) {
+            int[][][] positions = new int[1][][];
+            int[] notes = postings(i, positions);
+            for (int k = 0; k < notes.length; k++) {
+                int n = renumber[notes[k]];
+                if (n >= 0)
+                    p.add(n, positions[0][k], 0, positions[0][k].length);
+            }
+        }
+
+        /**
+         * Search for the notes matching the query, returning their paths,
+         * sorted.  The query is a list of words, all of which must be
+         * in the note.  A "quoted phrase" (or a word with punctuation,
+         * such as "e-mail") must appear as is.  Alternatives can be
+         * separated by OR, and a word preceded by "-" must not be in
+         * the note.  Case is ignored.
+         */
+        public List<String> search(String query) {
+            BitSet result = null;
+            BitSet exclude = new BitSet();
+            int n = query.length();
+            int i = 0;
+            while (true) {
+                while (i < n && Character.isWhitespace(query.charAt(i)))
+                    i++;
+                if (i >= n)
+                    break;
+                boolean not = false;
+                if (query.charAt(i) == '-') {
+                    not = true;
+                    i++;
+                }
+                BitSet match = new BitSet();
+                // atom [OR atom]...
+                while (true) {
+                    int end;
+                    String atom;
+                    if (i < n && query.charAt(i) == '"') {
+                        end = query.indexOf('"', i + 1);
+                        if (end < 0)
+                            end = n;
+                        atom = query.substring(i + 1, end);
+                        end = Math.min(end + 1, n);
+                    } else {
+                        end = i;
+                        while (end < n &&
+                                !Character.isWhitespace(query.charAt(end)))
+                            end++;
+                        atom = query.substring(i, end);
+                    }
+                    match.or(phrase(words(atom)));
+                    i = end;
+                    int j = i;
+                    while (j < n && Character.isWhitespace(query.charAt(j)))
+                        j++;
+                    if (query.startsWith("OR", j) && j + 2 < n &&
+                            Character.isWhitespace(query.charAt(j + 2))) {
+                        i = j + 3;
+                        while (i < n &&
+                                Character.isWhitespace(query.charAt(i)))
+                            i++;
+                    } else
+                        break;
+                }
+                if (not)
+                    exclude.or(match);
+                else if (result == null)
+                    result = match;
+                else
+                    result.and(match);
+            }
+            if (result == null) {
+                // only excluded words, match everything else
+                result = new BitSet();
+                result.set(0, notes);
+            }
+            result.andNot(exclude);
+
+            List<String> found = new ArrayList<>();
+            for (int k = result.nextSetBit(0); k >= 0;
+                    k = result.nextSetBit(k + 1))
+                found.add(paths[k]);
+            Collections.sort(found);
+            return found;
+        }
+
+        /**
+         * Return the notes containing the terms, in order.
+         */
+        private BitSet phrase(List<String> words) {
+            BitSet match = new BitSet();
+            if (words.isEmpty())
+                return match;
+            int[][] notes = new int[words.size()][];
+            int[][][] positions = new int[words.size()][][];
+            for (int k = 0; k < words.size(); k++) {
+                int t = find(words.get(k));
+                if (t < 0)
+                    return match;
+                int[][][] p = words.size() > 1 ? new int[1][][] : null;
+                notes[k] = postings(t, p);
+                if (p != null)
+                    positions[k] = p[0];
+            }
+            if (words.size() == 1) {
+                for (int note : notes[0])
+                    match.set(note);
+                return match;
+            }
+
+            // the notes containing all the terms, with the
+            // terms in consecutive positions
+            int[] next = new int[words.size()];
+            for (int a = 0; a < notes[0].length; a++) {
+                int note = notes[0][a];
+                boolean all = true;
+                for (int k = 1; k < words.size() && all; k++) {
+                    while (next[k] < notes[k].length &&
+                            notes[k][next[k]] < note)
+                        next[k]++;
+                    all = next[k] < notes[k].length &&
+                            notes[k][next[k]] == note;
+                }
+                if (!all)
+                    continue;
+                for (int p : positions[0][a]) {
+                    boolean found = true;
+                    for (int k = 1; k < words.size() && found; k++)
+                        found = Arrays.binarySearch(positions[k][next[k]],
+                                                    p + k) >= 0;
+                    if (found) {
+                        match.set(note);
+                        break;
+                    }
+                }
+            }
+            return match;
+        }
+
+        private int varint() {
+            return (int)varlong();
+        }
+
+        private long varlong() {
+            long v = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = buf.get(pos++);
+                v |= (long)(b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+        }
+
+        private String string() {
+            int len = varint();
+            byte[] b = new byte[len];
+            for (int i = 0; i < len; i++)
+                b[i] = buf.get(pos++);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates gzipped data, reusing an Inflater and an output buffer
+ * in each thread, rather than creating a GZIPInputStream (and its
+ * Inflater and native zlib state) for each note.
+ *
+ * The gzip header is parsed here and the data is inflated directly
+ * into the buffer, which is sized from the uncompressed size in the
+ * gzip trailer.  The returned reader uses the thread's buffer, so it
+ * can only be used until the next call in the same thread.  Threads
+ * that are done inflating call release, so the native zlib state is
+ * freed right away, not when the Inflater is garbage collected.
+ *
+ * XXX - only a single gzip member is read.
+ */
+public class NoteInflater {
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+
+    // larger buffers are used once and not kept
+    private static final int KEEP = 4 * 1024 * 1024;
+
+    // created the first time a thread inflates data
+    private static final ThreadLocal<NoteInflater> local =
+        new ThreadLocal<>();
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private byte[] buf = new byte[64 * 1024];
+
+    private NoteInflater() {
+    }
+
+    /**
+     * Inflate the gzipped data and return a reader for it.
+     * The reader is only valid until the next call in this thread.
+     */
+    public static ArchivedObjectReader inflate(byte[] data)
+                                throws IOException {
+        NoteInflater ni = local.get();
+        if (ni == null) {
+            ni = new NoteInflater();
+            local.set(ni);
+        }
+        return ni.inflate(data, 0, data.length);
+    }
+
+    /**
+     * Free this thread's Inflater and buffer.
+     * The next call in this thread creates new ones.
+     */
+    public static void release() {
+        NoteInflater ni = local.get();
+        if (ni != null) {
+            ni.inflater.end();
+            local.remove();
+        }
+    }
+
+    private ArchivedObjectReader inflate(byte[] data, int off, int len)
+                                throws IOException {
+        int end = off + len;
+        int pos = header(data, off, end);
+        if (end - pos < 8)
+            throw new EOFException("truncated gzip data");
+
+        // the trailer has the uncompressed size, modulo 2^32;
+        // deflate can't compress more than about 1032 to 1,
+        // so don't trust a larger size
+        int isize = int32(data, end - 4);
+        byte[] b = buf;
+        if (isize > b.length && (long)isize <= 1032L * len)
+            b = new byte[isize];
+
+        int n = 0;
+        inflater.reset();
+        inflater.setInput(data, pos, end - pos);
+        try {
+            while (!inflater.finished()) {
+                if (n == b.length)
+                    b = Arrays.copyOf(b, b.length * 2);
+                int c = inflater.inflate(b, n, b.length - n);
+                if (c == 0 && (inflater.needsInput() ||
+                                inflater.needsDictionary()))
+                    throw new EOFException("truncated gzip data");
+                n += c;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("bad gzip data: " + ex.getMessage());
+        }
+        if (b.length <= KEEP)
+            buf = b;
+
+        // check the trailer
+        int tpos = pos + (int)inflater.getBytesRead();
+        if (end - tpos < 8)
+            throw new EOFException("truncated gzip data");
+        crc.reset();
+        crc.update(b, 0, n);
+        if (int32(data, tpos) != (int)crc.getValue() ||
+                int32(data, tpos + 4) != n)
+            throw new IOException("corrupt gzip data");
+        return new ArchivedObjectReader(b, 0, n);
+    }
+
+    /**
+     * Skip the gzip header, returning the start of the compressed data.
+     */
+    private static int header(byte[] data, int pos, int end)
+                                throws IOException {
+        if (end - pos < 10 || (data[pos] & 0xff) != 0x1f ||
+                (data[pos + 1] & 0xff) != 0x8b || data[pos + 2] != 8)
+            throw new IOException("not gzip data");
+        int flags = data[pos + 3] & 0xff;
+        pos += 10;
+        if ((flags & FEXTRA) != 0) {
+            if (end - pos < 2)
+                throw new EOFException("truncated gzip header");
+            pos += 2 + ((data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0)
+            pos = skipString(data, pos, end);
+        if ((flags & FCOMMENT) != 0)
+            pos = skipString(data, pos, end);
+        if ((flags & FHCRC) != 0)
+            pos += 2;
+        if (pos > end)
+            throw new EOFException("truncated gzip header");
+        return pos;
+    }
+
+    private static int skipString(byte[] data, int pos, int end)
+                                throws IOException {
+        while (pos < end && data[pos] != 0)
+            pos++;
+        if (pos >= end)
+            throw new EOFException("truncated gzip header");
+        return pos + 1;
+    }
+
+    private static int int32(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 |
+                (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+}
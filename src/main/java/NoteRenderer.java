@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.IOException;
+
+/**
+ * Base class for the renderers, which interpret a {@link RenderProgram}
+ * and write the marked up text to a NoteWriter.
+ *
+ * Subclasses supply tables of the markup used to turn each inline
+ * style on and off, and override the methods for the instructions
+ * that need more than a table lookup.
+ * A renderer keeps state while rendering and isn't thread safe.
+ */
+public abstract class NoteRenderer {
+    private final String[] open;
+    private final String[] close;
+
+    protected NoteWriter out;
+    protected String text;
+    protected int lineStart;            // current line is text[lineStart]
+    protected int lineEnd;              // to text[lineEnd - 1]
+    protected boolean needNewline;      // current line ended with a newline
+    protected ParagraphStyle curps;     // current paragraph style
+    protected Attachments attachments;  // null if not saved
+    protected Tables tables;            // null if not rendered
+    private boolean attached;           // in a saved attachment
+
+    /**
+     * The open and close tables are indexed by the RenderProgram
+     * inline style codes; null entries produce no markup.
+     */
+    protected NoteRenderer(String[] open, String[] close) {
+        this.open = open;
+        this.close = close;
+    }
+
+    /**
+     * Link to the saved attachments.
+     * The note is saved in a folder of the output directory.
+     */
+    public void setAttachments(Attachments attachments) {
+        this.attachments = attachments;
+    }
+
+    /**
+     * Render the tables embedded in the note.
+     */
+    public void setTables(Tables tables) {
+        this.tables = tables;
+    }
+
+    /**
+     * Start an attachment.  If the attachment is a table that can
+     * be read, write the table; if it's a saved file, write a link
+     * to it.  Return true if either was written; the text of the
+     * attachment (the object replacement character) isn't written.
+     */
+    protected boolean startAttachment(UuidStyle us) throws IOException {
+        Table t;
+        String path;
+        if (Table.isTable(us)) {
+            if (tables == null || (t = tables.get(us.uuid)) == null)
+                return false;
+            table(t);
+        } else {
+            if (attachments == null || (path = attachments.get(us)) == null)
+                return false;
+            // relative to the note
+            link(us, "../" + path, path.substring(path.lastIndexOf('/') + 1));
+        }
+        attached = true;
+        return true;
+    }
+
+    /**
+     * End an attachment, returning true if it was saved.
+     */
+    protected boolean endAttachment() {
+        boolean a = attached;
+        attached = false;
+        return a;
+    }
+
+    /**
+     * Write a link to the saved attachment.
+     */
+    protected void link(UuidStyle us, String path, String name)
+                                throws IOException {
+    }
+
+    /**
+     * Write the table.
+     */
+    protected void table(Table t) throws IOException {
+    }
+
+    /**
+     * Render the program to the writer.
+     */
+    public void render(RenderProgram p, NoteWriter out) throws IOException {
+        this.out = out;
+        this.text = p.text;
+        this.curps = (ParagraphStyle)p.style(0);
+        int[] ops = p.ops();
+        int length = p.length();
+        int first = 0;          // the attribute's entries
+        int last = 0;
+        boolean firstLine = true;
+        int pc = 0;
+        while (pc < length) {
+            switch (ops[pc++]) {
+            case RenderProgram.ATTR:
+                attribute(ops[pc++]);
+                first = pc + 1;
+                last = first + ops[pc] * RenderProgram.ENTRY;
+                pc = last;
+                firstLine = true;
+                break;
+            case RenderProgram.LINE:
+                lineStart = ops[pc++];
+                lineEnd = ops[pc++];
+                needNewline = ops[pc++] != 0;
+                int t = firstLine ? 2 : 4;
+                for (int e = first; e < last; e += RenderProgram.ENTRY) {
+                    Style s = p.style(ops[e + 1]);
+                    if (ops[e] == RenderProgram.C_PARA) {
+                        ParagraphStyle prev =
+                            (ParagraphStyle)p.style(ops[e + t + 1]);
+                        curps = (ParagraphStyle)s;
+                        paragraph(ops[e + t], prev, curps);
+                    } else
+                        on(ops[e], s);
+                }
+                if (!attached)
+                    text(lineStart, lineEnd);
+                for (int e = last - RenderProgram.ENTRY; e >= first;
+                        e -= RenderProgram.ENTRY)
+                    off(ops[e], p.style(ops[e + 1]));
+                endLine();
+                firstLine = false;
+                break;
+            case RenderProgram.END_ATTR:
+                endAttribute(ops[pc++]);
+                break;
+            case RenderProgram.END:
+                finish();
+                break;
+            default:
+                throw new IllegalStateException("bad instruction " +
+                                                ops[pc - 1]);
+            }
+        }
+    }
+
+    /**
+     * Start of the text of an attribute.
+     */
+    protected void attribute(int anum) throws IOException {
+    }
+
+    /**
+     * End of the text of an attribute.
+     */
+    protected void endAttribute(int anum) throws IOException {
+    }
+
+    /**
+     * Change from the previous paragraph style to the new one.
+     * May consume leading text of the line by advancing lineStart.
+     */
+    protected void paragraph(int transition, ParagraphStyle prev,
+                                ParagraphStyle ps) throws IOException {
+    }
+
+    /**
+     * Turn on an inline style.
+     */
+    protected void on(int code, Style s) throws IOException {
+        if (open[code] != null)
+            out.append(open[code]);
+    }
+
+    /**
+     * Turn off an inline style, or the paragraph style (code C_PARA)
+     * at the end of the line.
+     */
+    protected void off(int code, Style s) throws IOException {
+        if (close[code] != null)
+            out.append(close[code]);
+    }
+
+    /**
+     * Write the text text[start] to text[end - 1].
+     */
+    protected void text(int start, int end) throws IOException {
+        out.write(text, start, end - start);
+    }
+
+    /**
+     * End of the current line.
+     */
+    protected void endLine() throws IOException {
+        if (needNewline)
+            out.append('\n');
+    }
+
+    /**
+     * End of the text.
+     */
+    protected void finish() throws IOException {
+    }
+
+    /**
+     * Write text[start] to text[end - 1], replacing each char c
+     * that has a non-null escape[c] with that string.
+     */
+    protected void escape(int start, int end, String[] escape)
+                                throws IOException {
+        int s = start;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < escape.length && escape[c] != null) {
+                out.write(text, s, i - s);
+                out.write(escape[c]);
+                s = i + 1;
+            }
+        }
+        out.write(text, s, end - s);
+    }
+
+    /**
+     * If the line starts with whitespace, replace each whitespace
+     * char with "&nbsp;".
+     */
+    protected void leadingWhitespace() throws IOException {
+        for (; lineStart < lineEnd; lineStart++) {
+            char c = text.charAt(lineStart);
+            if (c != ' ' && c != '\t')
+                break;
+            if (c == '\t')
+                out.append("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
+            else
+                out.append("&nbsp;");
+        }
+    }
+
+    /**
+     * Convert font size to a string.
+     */
+    static String fontSize(float fs) {
+        int intSize = (int)fs;
+        if ((float)intSize == fs)
+            return Integer.toString(intSize);
+        else
+            return Float.toString(fs);
+    }
+}
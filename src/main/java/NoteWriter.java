@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+
+/**
+ * A Writer for rendered note text.
+ *
+ * The renderers need to look at the last couple of characters written,
+ * and occasionally remove the last character, so the last character is
+ * held back from the underlying Writer until more is written.
+ * Everything else is passed straight through, so the rendered note
+ * is never built in memory.
+ */
+public class NoteWriter extends Writer {
+    private final Writer out;
+    private long count;         // number of chars written
+    private int held = -1;      // last char, not yet written to out
+    private int c1 = -1;        // last char written
+    private int c2 = -1;        // char before that, -1 if unknown
+
+    public NoteWriter(Writer out) {
+        this.out = out;
+    }
+
+    public void write(int c) throws IOException {
+        if (held >= 0)
+            out.write(held);
+        held = c & 0xffff;
+        c2 = c1;
+        c1 = held;
+        count++;
+    }
+
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (len <= 0)
+            return;
+        if (held >= 0)
+            out.write(held);
+        out.write(cbuf, off, len - 1);
+        c2 = len >= 2 ? cbuf[off + len - 2] : c1;
+        c1 = held = cbuf[off + len - 1];
+        count += len;
+    }
+
+    public void write(String s, int off, int len) throws IOException {
+        if (len <= 0)
+            return;
+        if (held >= 0)
+            out.write(held);
+        out.write(s, off, len - 1);
+        c2 = len >= 2 ? s.charAt(off + len - 2) : c1;
+        c1 = held = s.charAt(off + len - 1);
+        count += len;
+    }
+
+    /**
+     * Return the number of chars written.
+     */
+    public long length() {
+        return count;
+    }
+
+    /**
+     * Does the text written so far end with a newline?
+     */
+    public boolean endsWithNewline() {
+        return count > 0 && c1 == '\n';
+    }
+
+    /**
+     * Does the text written so far end with a blank line?
+     */
+    public boolean endsWithBlankLine() {
+        return count > 1 && c1 == '\n' && c2 == '\n';
+    }
+
+    /**
+     * Remove the last character written.
+     * Only the last character can be removed.
+     */
+    public void removeLast() {
+        if (held < 0)
+            throw new IllegalStateException("no character to remove");
+        held = -1;
+        c1 = c2;
+        c2 = -1;
+        count--;
+    }
+
+    /**
+     * Write the held character and flush the underlying Writer,
+     * without closing it.
+     */
+    public void finish() throws IOException {
+        if (held >= 0)
+            out.write(held);
+        held = -1;
+        out.flush();
+    }
+
+    /**
+     * Flush the underlying Writer.
+     * The last character is still held back.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+}
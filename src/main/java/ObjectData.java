@@ -30,9 +30,13 @@
  */
 
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * A single data item from an archived Objective-C object.
+ *
+ * Byte array data is not copied; the item refers to the range of
+ * the buffer that the containing object was read from.
  */
 public class ObjectData {
     /**
@@ -42,8 +46,13 @@ public class ObjectData {
 
     /**
      * The data.
+     * Integer and float values are stored in val;
+     * byte array data is at buf[off] to buf[off + len - 1].
      */
-    private Object data;
+    private int val;
+    private byte[] buf;
+    private int off;
+    private int len;
 
     /**
      * Construct an ObjectData for the given index.
@@ -56,30 +65,45 @@ public class ObjectData {
         return index;
     }
 
-    void setData(Object data) {
-        this.data = data;
+    void setInt(int val) {
+        this.val = val;
+    }
+
+    void setFloat(float fval) {
+        this.val = Float.floatToRawIntBits(fval);
+    }
+
+    void setBytes(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.off = off;
+        this.len = len;
     }
 
     public int getInt() {
-        return ((Integer)data).intValue();
+        assert buf == null;
+        return val;
     }
 
     public float getFloat() {
-        return ((Float)data).floatValue();
+        assert buf == null;
+        return Float.intBitsToFloat(val);
     }
 
     public String getString() {
-        return new String((byte[])data, StandardCharsets.UTF_8);
+        return new String(buf, off, len, StandardCharsets.UTF_8);
     }
 
     public boolean getBoolean() {
-        int b = ((Integer)data).intValue();
+        int b = getInt();
         assert b == 0 || b == 1;
         return b == 1;
     }
 
+    /**
+     * Return a copy of the byte array data.
+     */
     public byte[] getBytes() {
-        return (byte[])data;
+        return Arrays.copyOfRange(buf, off, off + len);
     }
 
     /**
@@ -88,6 +112,6 @@ public class ObjectData {
      * in the nested object.
      */
     public ArchivedObjectReader getObject() {
-        return new ArchivedObjectReader((byte[])data);
+        return new ArchivedObjectReader(buf, off, len);
     }
 }
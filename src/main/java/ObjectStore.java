@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A content addressed store for the saved notes.
+ *
+ * Each distinct note body (in each format) is stored once in the store
+ * directory, in a file named by the SHA-256 hash of its content, and
+ * the saved note files are hard links to the stored files.  Notes that
+ * are the same, and notes that haven't changed since they were saved
+ * in a previous output directory using the same store, don't use any
+ * more space and aren't written again.
+ *
+ * The stored files are read-only, so a saved note can't be changed
+ * (changing every note linked to the same stored file).  Before the
+ * first note is saved, a file in the store is linked into the output
+ * folder to check that hard links can be used.  If they can't, e.g.,
+ * because the store is on a different file system, a warning is printed
+ * and the notes are written to separate files as usual.  If a link
+ * fails later, only that note is written to a separate file.
+ */
+public class ObjectStore {
+    private final File dir;
+    private boolean checked;            // hard links have been tried
+    private boolean noLinks;            // hard links don't work
+
+    public ObjectStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Save the data in the file, as a link to the stored copy.
+     */
+    public void save(byte[] data, File file) throws IOException {
+        if (!checked) {
+            checked = true;
+            checkLinks(file.getParentFile());
+        }
+        if (!noLinks) {
+            File obj = store(data);
+            try {
+                Files.createLink(file.toPath(), obj.toPath());
+                return;
+            } catch (IOException | UnsupportedOperationException ex) {
+                // try writing this file
+            }
+        }
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(data);
+        }
+    }
+
+    /**
+     * Check that a file in the store can be linked into the
+     * directory, and if not, don't use links.
+     */
+    private void checkLinks(File outdir) throws IOException {
+        if (!dir.mkdirs() && !dir.isDirectory())
+            throw new IOException("can't create directory " + dir);
+        File probe = File.createTempFile(".probe", null, dir);
+        File link = new File(outdir, probe.getName());
+        try {
+            Files.createLink(link.toPath(), probe.toPath());
+        } catch (IOException | UnsupportedOperationException ex) {
+            noLinks = true;
+            System.out.println("Can't link saved notes to " + dir + ": " +
+                                ex + "; saving separate copies");
+        } finally {
+            link.delete();
+            probe.delete();
+        }
+    }
+
+    /**
+     * Store the data, if it's not already stored,
+     * and return the stored file.
+     */
+    private File store(byte[] data) throws IOException {
+        String hash = hash(data);
+        // spread the files over 256 directories
+        File sub = new File(dir, hash.substring(0, 2));
+        File obj = new File(sub, hash.substring(2));
+        if (obj.exists())
+            return obj;
+        if (!sub.mkdirs() && !sub.isDirectory())
+            throw new IOException("can't create directory " + sub);
+        // write a temporary file so no one sees a partial copy
+        File tmp = File.createTempFile(".new", null, sub);
+        try {
+            try (OutputStream os = new FileOutputStream(tmp)) {
+                os.write(data);
+            }
+            tmp.setReadOnly();
+            Files.move(tmp.toPath(), obj.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            tmp.delete();
+            if (!obj.exists())
+                throw ex;
+            // another export stored the same content
+        }
+        return obj;
+    }
+
+    /**
+     * Return the SHA-256 hash of the data, as a hex string.
+     */
+    private static String hash(byte[] data) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest(data))
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses the file names for the saved notes.
+ *
+ * Each folder directory is listed once, the first time a note is saved
+ * in it, and the names in use are then tracked in memory, instead of
+ * probing the file system for each possible name.  Names are compared
+ * ignoring case if the file system ignores case, as it usually does
+ * on a Mac.
+ *
+ * When the notes are saved in an archive, the names are only
+ * tracked in memory, and are compared ignoring case, so the archive
+ * can be extracted on a Mac.
+ *
+ * For each title, the next suffix to try is remembered, so that saving
+ * many notes with the same title doesn't probe all the names already
+ * used for that title.
+ *
+ * The names depend only on the order the notes are saved in.
+ */
+public class OutputLayout {
+    private final File root;
+    private final boolean files;        // saving to files, not an archive
+    private Boolean ignoreCase;         // known once a directory exists
+    // the names in use in each directory, in lower case if ignoring case
+    private final Map<File, Set<String>> dirs = new HashMap<>();
+    // the next suffix to try for each title.ext in each directory,
+    // in lower case if ignoring case; 0 is title.ext itself
+    private final Map<File, Map<String, Integer>> next = new HashMap<>();
+
+    private static final Pattern SUFFIX = Pattern.compile("(.*)-(\\d+)");
+
+    /**
+     * Save the notes in files in the root directory.
+     */
+    public OutputLayout(File root) {
+        this.root = root;
+        this.files = true;
+    }
+
+    /**
+     * Save the notes in an archive.
+     */
+    public OutputLayout() {
+        this.root = null;
+        this.files = false;
+        this.ignoreCase = true;
+    }
+
+    /**
+     * Return a new file in the folder for the note with the title,
+     * title.ext, or title-n.ext if that's in use.  The folder directory
+     * is created if necessary.
+     */
+    public synchronized File allocate(String folder, String title,
+                                String ext) throws IOException {
+        File dir = new File(root, folder);
+        Set<String> names = names(dir);
+        Map<String, Integer> suffixes = next.get(dir);
+        String k = key(title + ext);
+        int n = suffixes.getOrDefault(k, 0);
+        String name = n == 0 ? title + ext : title + "-" + n + ext;
+        while (names.contains(key(name)))
+            name = title + "-" + ++n + ext;
+        names.add(key(name));
+        suffixes.put(k, n + 1);
+        return new File(dir, name);
+    }
+
+    /**
+     * The file, allocated with the extension ext, has been removed,
+     * or moved elsewhere, so its name can be used again.
+     */
+    public synchronized void release(File file, String ext) {
+        File dir = file.getParentFile();
+        Set<String> names = dirs.get(dir);
+        if (names == null)
+            return;
+        String name = key(file.getName());
+        names.remove(name);
+
+        // start the search for its title at this name again
+        ext = key(ext);
+        if (!name.endsWith(ext))
+            return;
+        Map<String, Integer> suffixes = next.get(dir);
+        String stem = name.substring(0, name.length() - ext.length());
+        suffixes.computeIfPresent(name, (t, n) -> 0);
+        Matcher m = SUFFIX.matcher(stem);
+        if (m.matches()) {
+            try {
+                int n = Integer.parseInt(m.group(2));
+                suffixes.computeIfPresent(m.group(1) + ext,
+                                            (t, s) -> Math.min(s, n));
+            } catch (NumberFormatException ex) {
+                // too big to be one of ours
+            }
+        }
+    }
+
+    /**
+     * Return the names in use in the directory, creating it
+     * if it doesn't exist.
+     */
+    private Set<String> names(File dir) throws IOException {
+        Set<String> names = dirs.get(dir);
+        if (names == null) {
+            names = new HashSet<>();
+            String[] list = files ? dir.list() : null;
+            if (list == null && files && !dir.mkdirs() && !dir.isDirectory())
+                throw new IOException("can't create directory " + dir);
+            if (ignoreCase == null)
+                ignoreCase = ignoresCase(dir);
+            if (list != null) {
+                for (String f : list)
+                    names.add(key(f));
+            }
+            dirs.put(dir, names);
+            next.put(dir, new HashMap<>());
+        }
+        return names;
+    }
+
+    private String key(String name) {
+        return ignoreCase ? name.toLowerCase(Locale.ROOT) : name;
+    }
+
+    /**
+     * Does the file system containing the directory ignore case
+     * in file names?
+     */
+    private static boolean ignoresCase(File dir) throws IOException {
+        File f = File.createTempFile("savenotes", ".tmp", dir);
+        try {
+            return new File(dir,
+                        f.getName().toUpperCase(Locale.ROOT)).exists();
+        } finally {
+            f.delete();
+        }
+    }
+}
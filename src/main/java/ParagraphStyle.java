@@ -33,7 +33,7 @@
  * A paragraph style.
  */
 public class ParagraphStyle extends Style {
-    public int style;
+    public final int style;
 
     public static final int NONE = -1;
     public static final int TITLE = 0;
@@ -50,13 +50,25 @@ public class ParagraphStyle extends Style {
         this.style = style;
     }
 
+    /**
+     * Does the paragraph continue with this style, after a paragraph
+     * with the style to?
+     */
+    public boolean sameParagraph(ParagraphStyle to) {
+        return style == to.style;
+    }
+
     public boolean equals(Object o) {
-        if (!(o instanceof ParagraphStyle))
+        if (o == null || o.getClass() != getClass())
             return false;
         ParagraphStyle to = (ParagraphStyle)o;
         return style == to.style;
     }
 
+    public int hashCode() {
+        return style;
+    }
+
     public String toString() {
         return String.format("ParagraphStyle[style=%d]", style);
     }
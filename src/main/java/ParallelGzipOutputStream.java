@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gzip OutputStream that compresses the data in parallel.
+ *
+ * The data is split into blocks and each block is compressed by one
+ * of the pool threads as a separate gzip member.  A gzip file can
+ * contain any number of members, which are decompressed as if they
+ * were one, so the result can be read by gzip, tar, GZIPInputStream,
+ * etc.  Compressing the blocks independently costs a little in the
+ * compression ratio.
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+    private static final int BLOCK = 1024 * 1024;
+
+    private final ExecutorService pool;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK];
+    private int count;
+
+    /**
+     * Compress to the OutputStream using the pool, with up to
+     * maxPending blocks being compressed at once.
+     */
+    public ParallelGzipOutputStream(OutputStream out, ExecutorService pool,
+                                int maxPending) {
+        super(out);
+        this.pool = pool;
+        this.maxPending = maxPending;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length)
+            submit();
+        block[count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == block.length)
+                submit();
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compress and write all the data, but don't close the stream.
+     * (flush() doesn't end the current block, which would hurt
+     * the compression.)
+     */
+    public void finish() throws IOException {
+        if (count > 0)
+            submit();
+        while (!pending.isEmpty())
+            writeNext();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Start compressing the current block.
+     */
+    private void submit() throws IOException {
+        final byte[] b = block;
+        final int n = count;
+        pending.add(pool.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                ByteArrayOutputStream bos =
+                    new ByteArrayOutputStream(n / 2 + 64);
+                try (GZIPOutputStream gz = new GZIPOutputStream(bos, 65536)) {
+                    gz.write(b, 0, n);
+                }
+                return bos.toByteArray();
+            }
+        }));
+        block = new byte[BLOCK];
+        count = 0;
+        while (pending.size() > maxPending)
+            writeNext();
+    }
+
+    /**
+     * Write the next block, when it's been compressed.
+     */
+    private void writeNext() throws IOException {
+        out.write(Archive.get(pending.remove()));
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.Arrays;
+
+/**
+ * The style transitions of a note, compiled once from the attribute
+ * runs into a compact stream of instructions that's shared by
+ * all the renderers (see {@link NoteRenderer}).
+ *
+ * Each attribute run compiles to an ATTR instruction followed by a table
+ * of entries, one for the paragraph style and one for each inline
+ * style (each TextStyle bit is a separate entry), and then a LINE
+ * instruction for each line of its text.  For each line, the renderer
+ * applies the entries in order, writes the text, and turns the entries
+ * off in reverse order.  Entries refer to styles by their index in
+ * the styles table; style 0 is the initial (plain) paragraph style.
+ */
+public class RenderProgram {
+
+    // the instructions, and their operands
+    public static final int ATTR = 1;       // attribute number, # entries
+    public static final int LINE = 2;       // start, end, needs newline
+    public static final int END_ATTR = 3;   // attribute number
+    public static final int END = 4;
+
+    /*
+     * Each entry is ENTRY ints: the inline style code, the style index,
+     * and for paragraph styles the transition and previous paragraph
+     * style index for the first line of the attribute, and for the
+     * following lines.
+     */
+    public static final int ENTRY = 6;
+
+    // paragraph style transitions
+    public static final int SAME = 0;       // same paragraph style
+    public static final int CHANGE = 1;     // new paragraph style
+    public static final int INDENT = 2;     // list nested more deeply
+    public static final int OUTDENT = 3;    // list nested less deeply
+
+    // inline style codes
+    public static final int C_PARA = 0;     // paragraph style
+    public static final int C_UUID = 1;
+    public static final int C_URL = 2;
+    public static final int C_FONT = 3;
+    public static final int C_BOLD = 4;
+    public static final int C_ITALIC = 5;
+    public static final int C_UNDERLINE = 6;
+    public static final int C_STRIKETHROUGH = 7;
+    public static final int C_COLOR = 8;
+    public static final int C_UNKNOWN = 9;
+    public static final int NCODES = 10;
+
+    // TextStyle bits, in the order they're turned on
+    private static final int[] TEXT_BITS = {
+        TextStyle.BOLD, TextStyle.ITALIC,
+        TextStyle.UNDERLINE, TextStyle.STRIKETHROUGH
+    };
+    private static final int[] TEXT_CODES = {
+        C_BOLD, C_ITALIC, C_UNDERLINE, C_STRIKETHROUGH
+    };
+
+    public final String text;
+    private int[] ops;
+    private int length;
+    private Style[] styles;
+    private int nstyles;
+
+    /**
+     * Compile the attribute runs that apply to the text.
+     */
+    public RenderProgram(String text, AttributeRuns attributes) {
+        this.text = text;
+        int nruns = attributes.size();
+        ops = new int[64 + nruns * 16];
+        styles = new Style[16];
+        ParagraphStyle curps = new ParagraphStyle(ParagraphStyle.NONE);
+        int cur = style(curps);
+        // index in the styles table of the first style of each style set
+        int[] setStart = new int[attributes.styleSets()];
+        Arrays.fill(setStart, -1);
+        for (int r = 0; r < nruns; r++) {
+            int tpos = attributes.offset(r);
+            int aend = attributes.offset(r + 1);
+            int anum = r + 1;
+            int id = attributes.styleId(r);
+            Style[] astyles = attributes.styleSet(id);
+            if (setStart[id] < 0) {
+                setStart[id] = nstyles;
+                for (Style s : astyles)
+                    style(s);
+            }
+            emit(ATTR, anum, 0);
+            int nentries = length - 1;
+
+            /*
+             * Compile the entries.  Paragraph style entries are
+             * patched below, once the last paragraph style of the
+             * attribute is known.
+             */
+            int first = length;
+            for (int i = 0; i < astyles.length; i++) {
+                Style s = astyles[i];
+                int si = setStart[id] + i;
+                if (s instanceof TextStyle) {
+                    TextStyle ts = (TextStyle)s;
+                    for (int b = 0; b < TEXT_BITS.length; b++)
+                        if ((ts.style & TEXT_BITS[b]) != 0)
+                            entry(TEXT_CODES[b], si);
+                } else {
+                    entry(code(s), si);
+                }
+            }
+            ops[nentries] = (length - first) / ENTRY;
+
+            ParagraphStyle lastps = null;
+            int last = -1;
+            for (int e = first; e < length; e += ENTRY) {
+                if (ops[e] != C_PARA)
+                    continue;
+                ParagraphStyle ps = (ParagraphStyle)styles[ops[e + 1]];
+                ops[e + 2] = transition(curps, ps);
+                ops[e + 3] = cur;
+                curps = ps;
+                cur = ops[e + 1];
+                lastps = ps;
+                last = cur;
+            }
+            // the following lines follow the last paragraph style
+            for (int e = first; e < length; e += ENTRY) {
+                if (ops[e] != C_PARA)
+                    continue;
+                ParagraphStyle ps = (ParagraphStyle)styles[ops[e + 1]];
+                ops[e + 4] = transition(lastps, ps);
+                ops[e + 5] = last;
+                lastps = ps;
+                last = ops[e + 1];
+            }
+
+            /*
+             * Compile each "line" of the text.
+             */
+            int starti = tpos;
+            while (starti >= 0) {
+                // the line is text[ls] to text[le - 1]
+                int ls = starti;
+                int le;
+                int nl = indexOf(text, '\n', starti, aend);
+                if (nl >= 0) {
+                    nl++;
+                    le = nl;
+                    starti = nl < aend ? nl : -1;
+                } else {
+                    le = aend;
+                    starti = -1;
+                }
+
+                /*
+                 * If the text ends with a newline, move it out.
+                 */
+                boolean needNewline = false;
+                if (le > ls && text.charAt(le - 1) == '\n') {
+                    le--;
+                    needNewline = true;
+                }
+                emit(LINE, ls, le, needNewline ? 1 : 0);
+            }
+            emit(END_ATTR, anum);
+        }
+        emit(END);
+    }
+
+    /**
+     * Return the instructions.
+     * Only the first length() elements are valid.
+     */
+    public int[] ops() {
+        return ops;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Return the style for the index.
+     */
+    public Style style(int i) {
+        return styles[i];
+    }
+
+    /**
+     * Classify the change from the previous paragraph style.
+     */
+    private static int transition(ParagraphStyle curps, ParagraphStyle ps) {
+        if (ps == curps)        // styles are interned
+            return SAME;
+        if (ps instanceof ListStyle && curps instanceof ListStyle) {
+            // nested lists
+            ListStyle psl = (ListStyle)ps;
+            ListStyle curpsl = (ListStyle)curps;
+            if (psl.indent > curpsl.indent)
+                return INDENT;
+            else if (psl.indent < curpsl.indent)
+                return OUTDENT;
+        }
+        return ps.sameParagraph(curps) ? SAME : CHANGE;
+    }
+
+    /**
+     * Return the inline code for the style.
+     */
+    private static int code(Style s) {
+        if (s instanceof ParagraphStyle)
+            return C_PARA;
+        else if (s instanceof UuidStyle)
+            return C_UUID;
+        else if (s instanceof UrlStyle)
+            return C_URL;
+        else if (s instanceof FontStyle)
+            return C_FONT;
+        else if (s instanceof ColorStyle)
+            return C_COLOR;
+        else
+            return C_UNKNOWN;
+    }
+
+    /**
+     * Add the style to the styles table, returning its index.
+     */
+    private int style(Style s) {
+        if (nstyles == styles.length)
+            styles = Arrays.copyOf(styles, nstyles * 2);
+        styles[nstyles] = s;
+        return nstyles++;
+    }
+
+    private void entry(int code, int style) {
+        ensure(ENTRY);
+        ops[length++] = code;
+        ops[length++] = style;
+        length += ENTRY - 2;
+    }
+
+    private void emit(int op) {
+        ensure(1);
+        ops[length++] = op;
+    }
+
+    private void emit(int op, int a) {
+        ensure(2);
+        ops[length++] = op;
+        ops[length++] = a;
+    }
+
+    private void emit(int op, int a, int b) {
+        ensure(3);
+        ops[length++] = op;
+        ops[length++] = a;
+        ops[length++] = b;
+    }
+
+    private void emit(int op, int a, int b, int c) {
+        ensure(4);
+        ops[length++] = op;
+        ops[length++] = a;
+        ops[length++] = b;
+        ops[length++] = c;
+    }
+
+    private void ensure(int n) {
+        if (length + n > ops.length)
+            ops = Arrays.copyOf(ops, ops.length * 2);
+    }
+
+    /**
+     * Return the index of c in text[from] to text[to - 1], or -1.
+     */
+    private static int indexOf(String text, char c, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (text.charAt(i) == c)
+                return i;
+        return -1;
+    }
+}
@@ -31,13 +31,29 @@
 
 import java.io.*;
 import java.sql.*;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
 import java.awt.Color;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.regex.*;
-import java.util.zip.GZIPInputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Save Apple Notes content.
@@ -47,10 +63,15 @@ import java.nio.charset.StandardCharsets;
 public class SaveNotes {
     private static final String NOTES_DB =
         "Library/Group Containers/group.com.apple.notes/NoteStore.sqlite";
+    /*
+     * The note metadata, without the note data, which is read only
+     * for the notes that are selected by the filters.  The filters
+     * and ORDER BY are added by save().
+     */
     private static final String query =
         "SELECT n.Z_PK as pk, " +
         " n.ZNOTE as note_id, " +
-        " n.ZDATA as data, " +
+        " length(n.ZDATA) as size, " +
         /*
         " c3.ZFILESIZE, " +
         " c4.ZFILENAME, " +
@@ -72,13 +93,12 @@ public class SaveNotes {
         */
         " FROM ZICNOTEDATA as n " +
         " LEFT JOIN ZICCLOUDSYNCINGOBJECT as c1 ON c1.ZNOTEDATA = n.Z_PK  " +
-        " LEFT JOIN ZICCLOUDSYNCINGOBJECT as c2 ON c2.Z_PK = c1.ZFOLDER " +
         /*
         " LEFT JOIN ZICCLOUDSYNCINGOBJECT as c3 ON c3.ZNOTE = n.ZNOTE " +
         " LEFT JOIN ZICCLOUDSYNCINGOBJECT as c4 ON c4.ZATTACHMENT1 = c3.Z_PK " +
         " LEFT JOIN ZICCLOUDSYNCINGOBJECT as c5 ON c5.Z_PK = c1.ZACCOUNT2  " +
         */
-        " ORDER BY note_id";
+        " LEFT JOIN ZICCLOUDSYNCINGOBJECT as c2 ON c2.Z_PK = c1.ZFOLDER ";
         // XXX - commented above returns multiple records for a given note
 
         // folderName == NULL implies this note has been deleted?
@@ -90,6 +110,29 @@ public class SaveNotes {
          * table data, including "schema", in archived object format.
          */
 
+    private static final String dataQuery =
+        "SELECT ZDATA FROM ZICNOTEDATA WHERE Z_PK = ?";
+
+    // the notes that still exist, for incremental mode
+    private static final String liveQuery =
+        "SELECT n.Z_PK FROM ZICNOTEDATA as n " +
+        " LEFT JOIN ZICCLOUDSYNCINGOBJECT as c1 ON c1.ZNOTEDATA = n.Z_PK  " +
+        " LEFT JOIN ZICCLOUDSYNCINGOBJECT as c2 ON c2.Z_PK = c1.ZFOLDER ";
+
+    // Core Data timestamps are seconds since 2001-01-01 UTC
+    private static final long CORE_DATA_EPOCH = 978307200;
+
+    // attachments are copied by a few I/O threads
+    private static final int ATTACHMENT_THREADS = 4;
+
+    // the most table cells kept in the table cache
+    private static final int TABLE_CACHE_CELLS = 100000;
+
+    // in watch mode, Notes writes the database in bursts, so wait for
+    // the writes to stop for this long, but no longer than the max
+    private static final long WATCH_QUIET_MS = 2000;
+    private static final long WATCH_MAX_DELAY_MS = 30000;
+
 
     private static boolean verbose;
     private static boolean all;
@@ -98,10 +141,34 @@ public class SaveNotes {
     private static boolean marked;
     private static boolean print;
     private static boolean markdown;
+    private static boolean txt;
     private static boolean debug;
     private static Pattern titlePat;
+    private static String folder;
+    private static Double since;        // Core Data timestamps
+    private static Double until;
     private static File root;
     private static String db = null;
+    private static int threads = 1;
+    private static boolean immutable;
+    private static boolean snapshot;
+    private static int mmapSize = 1024;     // MB
+    private static int cacheSize = 64;      // MB
+    private static boolean incremental;
+    private static boolean watch;
+    private static boolean compressed;
+    private static boolean attach;
+    private static Attachments attachments;
+    private static Tables tables;
+    private static OutputLayout layout;
+    private static File archiveFile;
+    private static Archive archive;
+    private static ObjectStore store;
+    private static NoteIndex index;
+    private static NoteIndex.Reader oldIndex;   // from the previous run
+    private static List<String> formats;
+    private static Manifest manifest;   // from the previous run
+    private static Manifest saved;      // for this run
 
     public static void main(String[] argv) throws Exception {
 
@@ -117,6 +184,12 @@ public class SaveNotes {
                 root = new File(argv[++optind]);
             } else if (argv[optind].equals("-t")) {
                 titlePat = Pattern.compile(argv[++optind]);
+            } else if (argv[optind].equals("-n")) {
+                folder = argv[++optind];
+            } else if (argv[optind].equals("-s")) {
+                since = date(argv[++optind], 0);
+            } else if (argv[optind].equals("-u")) {
+                until = date(argv[++optind], 1);
             } else if (argv[optind].equals("-h")) {
                 html = true;
             } else if (argv[optind].equals("-r")) {
@@ -127,6 +200,45 @@ public class SaveNotes {
                 print = true;
             } else if (argv[optind].equals("-m")) {
                 markdown = true;
+            } else if (argv[optind].equals("-F")) {
+                for (String f : argv[++optind].split(",")) {
+                    if (f.equals("html"))
+                        html = true;
+                    else if (f.equals("md"))
+                        markdown = true;
+                    else if (f.equals("raw"))
+                        raw = true;
+                    else if (f.equals("txt"))
+                        txt = true;
+                    else {
+                        System.out.println("Unknown format: " + f);
+                        System.exit(1);
+                    }
+                }
+            } else if (argv[optind].equals("-z")) {
+                compressed = true;
+            } else if (argv[optind].equals("-i")) {
+                incremental = true;
+            } else if (argv[optind].equals("-w")) {
+                watch = true;
+            } else if (argv[optind].equals("-A")) {
+                attach = true;
+            } else if (argv[optind].equals("-o")) {
+                archiveFile = new File(argv[++optind]);
+            } else if (argv[optind].equals("-c")) {
+                store = new ObjectStore(new File(argv[++optind]));
+            } else if (argv[optind].equals("-x")) {
+                index = new NoteIndex();
+            } else if (argv[optind].equals("-j")) {
+                threads = Integer.parseInt(argv[++optind]);
+            } else if (argv[optind].equals("-I")) {
+                immutable = true;
+            } else if (argv[optind].equals("-S")) {
+                snapshot = true;
+            } else if (argv[optind].equals("-M")) {
+                mmapSize = Integer.parseInt(argv[++optind]);
+            } else if (argv[optind].equals("-C")) {
+                cacheSize = Integer.parseInt(argv[++optind]);
             } else if (argv[optind].equals("-X")) {
                 debug = true;
             } else if (argv[optind].equals("--")) {
@@ -135,7 +247,11 @@ public class SaveNotes {
             } else if (argv[optind].startsWith("-")) {
                 System.out.println(
                     "Usage: savenotes [-f db] [-a] [-v] [-d dir] [-t pattern]" +
-                    " [-h] [-r] [-m] [-p] [-k] [-X]");
+                    " [-n folder] [-s date] [-u date]" +
+                    " [-h] [-r] [-z] [-m] [-p] [-k] [-F formats] [-i] [-w] [-A] [-o archive] [-c store] [-x]" +
+                    " [-j threads] [-I] [-S]" +
+                    " [-M mmapMB] [-C cacheMB] [-X]" +
+                    " [search query]");
                 System.exit(1);
             } else {
                 break;
@@ -148,106 +264,771 @@ public class SaveNotes {
         }
         if (root == null)
             root = new File(".");
+        if (optind < argv.length && argv[optind].equals("search")) {
+            StringBuilder query = new StringBuilder();
+            for (optind++; optind < argv.length; optind++)
+                query.append(argv[optind]).append(' ');
+            search(query.toString());
+            return;
+        }
+        if (archiveFile != null) {
+            if (!Archive.isArchive(archiveFile.getName())) {
+                System.out.println("Unknown archive type: " + archiveFile);
+                System.exit(1);
+            }
+            // XXX - attachments could be added to the archive
+            if (print || incremental || attach || store != null ||
+                    index != null) {
+                System.out.println("Can't use -p, -i, -A, -c, or -x with -o");
+                System.exit(1);
+            }
+        }
+        if (watch) {
+            if (print || archiveFile != null || immutable || snapshot) {
+                System.out.println("Can't use -p, -o, -I, or -S with -w");
+                System.exit(1);
+            }
+            incremental = true;     // only changed notes are saved again
+        }
 
         save();
     }
 
     /**
-     * Connect to the Notes database.
+     * Search the index in the output directory and print the paths
+     * of the matching notes.
      */
-    private static Connection connect(String db) {
-        Connection conn = null;
+    private static void search(String query) throws IOException {
+        NoteIndex.Reader r = NoteIndex.open(root);
+        if (r == null) {
+            System.out.println("No index in " + root +
+                                "; save the notes with -x to create one");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        List<String> found = r.search(query);
+        for (String path : found)
+            System.out.println(path);
+        if (verbose)
+            System.out.printf("%d notes found in %d ms%n", found.size(),
+                            (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Convert a yyyy-mm-dd date, plus the number of days,
+     * to a Core Data timestamp at the start of that day.
+     */
+    private static Double date(String s, int days) {
         try {
-            String url = "jdbc:sqlite:" + db;
+            return (double)(LocalDate.parse(s).plusDays(days).
+                atStartOfDay(ZoneId.systemDefault()).toEpochSecond() -
+                CORE_DATA_EPOCH);
+        } catch (DateTimeParseException ex) {
+            System.out.println("Bad date: " + s);
+            System.exit(1);
+            return null;
+        }
+    }
 
-            conn = DriverManager.getConnection(url);
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
+    /**
+     * Connect to the Notes database, for reading only.
+     * Pages are read through a memory map rather than read calls,
+     * and temporary tables (e.g., for sorting) are kept in memory.
+     *
+     * An immutable database is read without any locking or checking
+     * for changes, which is only safe if Notes isn't running.
+     */
+    private static Connection connect(String db, boolean immutable)
+                                throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE,
+                            Long.toString(mmapSize * 1024L * 1024L));
+        config.setCacheSize(-cacheSize * 1024);     // negative means KB
+        config.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        String url;
+        if (immutable)
+            url = "jdbc:sqlite:" + new File(db).toURI() + "?immutable=1";
+        else
+            url = "jdbc:sqlite:" + db;
+
+        Connection conn = DriverManager.getConnection(url,
+                                                config.toProperties());
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA query_only = 1");
         }
         return conn;
     }
 
+    /**
+     * Copy the database to the snapshot file using the SQLite online
+     * backup API, which includes any changes still in the write-ahead
+     * log.  The pages are copied a few at a time, without holding
+     * a lock on the database in between, so Notes can keep writing
+     * to it, and the copy is restarted if it does.
+     */
+    private static void snapshot(Connection conn, File file)
+                                throws SQLException {
+        DB sdb = ((SQLiteConnection)conn).getDatabase();
+        int rc = sdb.backup("main", file.getPath(), null);
+        if (rc != 0)        // SQLITE_OK
+            throw new SQLException("snapshot failed, error " + rc);
+        if (verbose)
+            System.out.println("Snapshot: " + file.length() + " bytes");
+    }
+
     /**
      * Loop through the matching notes and save (or print) each one.
+     * First the metadata of the notes is read, with the folder and
+     * date filters applied by the query, and then the data is read
+     * for only the selected notes that need to be saved.
+     * The notes are read from the database by this thread and fed
+     * through the export pipeline, which decodes and renders the notes
+     * using the requested number of threads, and writes them in order.
+     *
+     * Each note is decoded once and saved in each of the selected
+     * formats.
+     *
+     * In incremental mode, notes that haven't changed since they were
+     * saved by the previous run are skipped, and the saved files for
+     * notes that no longer exist are removed.
+     *
+     * In watch mode, the notes are saved again each time the database
+     * changes, until the program is killed.
      */
     private static void save() throws SQLException, IOException {
-        String ext = raw ? ".raw" : (html ? ".html" : (markdown ? ".md" : ".txt"));
-
-        Connection conn = connect(db);
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery(query);
-
-        for (int row = 1; rs.next(); row++) {
-            String folderName = rs.getString("folderName");
-            if (!all && folderName == null)
-                continue;
-            String title = rs.getString("title");
-            if (title == null)
-                title = "Untitled";
-            if (titlePat != null && !titlePat.matcher(title).find())
-                continue;
-
-            File note = null;
-            if (print) {
-                if (verbose)
-                    System.out.println("Note: " + title);
-            } else {
-                title = title.replace('/', '-');
-                File dir = new File(root, folderName);
-                if (!dir.exists())
-                    dir.mkdir();
-                note = new File(dir, title + ext);
-                for (int i = 1; note.exists(); i++)
-                    note = new File(dir, title + "-" + i + ext);
-                if (verbose)
-                    System.out.println("Save: " + note);
+        formats = new ArrayList<>();
+        if (raw)
+            formats.add(compressed ? "raw.gz" : "raw");
+        if (html)
+            formats.add("html");
+        if (markdown)
+            formats.add("md");
+        if (formats.isEmpty())
+            txt = true;
+        if (txt)
+            formats.add("txt");
+        if (print)
+            index = null;
+        if (incremental && !print) {
+            manifest = Manifest.load(root);
+            if (index != null)
+                oldIndex = NoteIndex.open(root);
+        }
+        if (archiveFile != null) {
+            layout = new OutputLayout();
+            try {
+                archive = Archive.create(archiveFile);
+            } catch (IOException ex) {
+                System.out.println("Can't create " + archiveFile + ": " +
+                                    ex.getMessage());
+                System.exit(1);
+            }
+        } else
+            layout = new OutputLayout(root);
+
+        Connection conn;
+        File snapshotFile = null;
+        try {
+            if (!new File(db).isFile())
+                throw new SQLException("no such file");
+            conn = connect(db, immutable);
+            if (snapshot) {
+                // export from a consistent copy of the database
+                snapshotFile = File.createTempFile("savenotes", ".sqlite");
+                snapshotFile.deleteOnExit();
+                snapshot(conn, snapshotFile);
+                conn.close();
+                conn = connect(snapshotFile.getPath(), true);
             }
+        } catch (SQLException | IOException ex) {
+            System.out.println("Can't open Notes database " + db + ": " +
+                                ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (watch) {
+            watch(conn);
+            return;
+        }
+        export(conn, since);
+        conn.close();
+        if (snapshotFile != null)
+            snapshotFile.delete();
+    }
+
+    /**
+     * Save the notes modified on or after the "from" date, or all the
+     * notes if it's null, and return the latest modification date of
+     * the notes that were read.
+     */
+    private static Double export(Connection conn, Double from)
+                                throws SQLException, IOException {
+        if (manifest != null)
+            saved = new Manifest();
+        if (attach && (html || markdown) && !print) {
+            // the Media directory is next to the database
+            File media = new File(new File(db).getAbsoluteFile().
+                                    getParentFile(), "Media");
+            attachments = new Attachments(media, root, ATTACHMENT_THREADS);
+        }
+
+        StringBuilder sql = new StringBuilder(query);
+        List<Object> params = new ArrayList<>();
+        String sep = " WHERE ";
+        if (!all) {
+            sql.append(sep).append("c2.ZTITLE2 IS NOT NULL");
+            sep = " AND ";
+        }
+        if (folder != null) {
+            sql.append(sep).append("c2.ZTITLE2 = ?");
+            params.add(folder);
+            sep = " AND ";
+        }
+        if (from != null) {
+            sql.append(sep).append("c1.ZMODIFICATIONDATE1 >= ?");
+            params.add(from);
+            sep = " AND ";
+        }
+        if (until != null) {
+            sql.append(sep).append("c1.ZMODIFICATIONDATE1 < ?");
+            params.add(until);
+        }
+        sql.append(" ORDER BY note_id");
+
+        PreparedStatement stmt = conn.prepareStatement(sql.toString());
+        for (int i = 0; i < params.size(); i++)
+            stmt.setObject(i + 1, params.get(i));
+        ResultSet rs = stmt.executeQuery();
+        PreparedStatement dataStmt = conn.prepareStatement(dataQuery);
+        // a new cache each time, since the tables may have changed
+        if (html || markdown)
+            tables = new Tables(conn, TABLE_CACHE_CELLS);
+        // the styles seen in this export, dropped when it's done
+        final StyleTable styles = new StyleTable();
+
+        ExportPipeline<Note, Output> pipeline = new ExportPipeline<>(threads,
+            new ExportPipeline.Worker<Note, Output>() {
+                public Output process(Note note) throws IOException {
+                    // if it's only been moved, it doesn't need to be rendered
+                    if (unchanged(note.pk, note.noteID, note.modified) != null)
+                        return null;
+                    return render(note, styles);
+                }
 
-            debug("%d: pk %d, note_id %d, noteID %d: %d %s/%s%n",
-                row,
-                rs.getInt("pk"),
-                rs.getInt("note_id"),
-                rs.getInt("noteID"),
-                rs.getLong("modified"),
-                rs.getString("folderName"),
-                rs.getString("title"));
-
-            if (raw) {
-                try (FileOutputStream os = new FileOutputStream(note)) {
-                    try (InputStream bis = rs.getBinaryStream("data")) {
-                        int c;
-                        if (bis != null) {
-                            InputStream is = new GZIPInputStream(bis);
-                            while ((c = is.read()) >= 0)
-                                os.write((char)c);
-                        }
+                public void exit() {
+                    NoteInflater.release();
+                }
+            },
+            new ExportPipeline.Writer<Note, Output>() {
+                public void write(Note note, Output out) throws IOException {
+                    saveNote(note, out);
+                }
+            });
+
+        Double last = null;
+        try {
+            for (int row = 1; rs.next(); row++) {
+                double modified = rs.getDouble("modified");
+                if (last == null || modified > last)
+                    last = modified;
+                String folderName = rs.getString("folderName");
+                String title = rs.getString("title");
+                if (title == null)
+                    title = "Untitled";
+                int pk = rs.getInt("pk");
+                if (titlePat != null && !titlePat.matcher(title).find())
+                    continue;
+
+                debug("%d: pk %d, note_id %d, noteID %d: %d %s/%s%n",
+                    row,
+                    rs.getInt("pk"),
+                    rs.getInt("note_id"),
+                    rs.getInt("noteID"),
+                    rs.getLong("modified"),
+                    rs.getString("folderName"),
+                    rs.getString("title"));
+
+                String noteID = rs.getString("noteID");
+                List<Manifest.Entry> prev = unchanged(pk, noteID, modified);
+                if (prev != null && inFolder(prev, folderName)) {
+                    for (Manifest.Entry e : prev) {
+                        if (verbose)
+                            System.out.println("Unchanged: " + e.path);
+                        saved.put(e);
                     }
+                    continue;
+                }
+
+                // if it's only been moved, the data isn't needed
+                byte[] data = null;
+                if (prev == null && rs.getObject("size") != null)
+                    data = readData(dataStmt, pk);
+
+                pipeline.submit(new Note(row,
+                    pk,
+                    rs.getInt("note_id"),
+                    noteID,
+                    title,
+                    folderName,
+                    modified,
+                    data));
+            }
+            rs.close();
+            stmt.close();
+            dataStmt.close();
+            pipeline.finish();
+        } finally {
+            // stop the pipeline threads if a note couldn't be read
+            pipeline.abort();
+        }
+        if (attachments != null)
+            attachments.close();
+        if (archive != null)
+            archive.close();
+
+        if (saved != null) {
+            // keep the files for notes not selected this time
+            if (titlePat != null || folder != null ||
+                    from != null || until != null) {
+                Set<Integer> live = liveNotes(conn);
+                for (Manifest.Entry e : manifest.entries())
+                    if (live.contains(e.pk) && saved.get(e.pk).isEmpty())
+                        saved.put(e);
+            }
+
+            // remove the files for notes that have been deleted
+            for (Manifest.Entry e : manifest.entries()) {
+                if (saved.get(e.pk, e.format) == null) {
+                    File file = new File(root, e.path);
+                    if (verbose)
+                        System.out.println("Remove: " + file);
+                    file.delete();
+                    layout.release(file, "." + e.format);
+                }
+            }
+            saved.save(root);
+        }
+        if (index != null) {
+            // keep the notes in the old index that weren't saved again
+            Map<Integer, String> keep = new HashMap<>();
+            if (saved != null) {
+                for (Manifest.Entry e : saved.entries())
+                    if (!keep.containsKey(e.pk) ||
+                            e.format.equals(formats.get(0)))
+                        keep.put(e.pk, e.path);
+            }
+            index.save(root, oldIndex, keep);
+        }
+        return last;
+    }
+
+    /**
+     * Save the notes, and then save them again each time the database
+     * changes.  The database is watched for changes to the database
+     * file or its write-ahead log, and after the first time, only the
+     * notes modified since the latest modification date seen so far
+     * are read.  The notes modified at exactly that time are read again,
+     * but are skipped if they haven't changed.  The manifest and index
+     * are kept in memory between passes.
+     *
+     * XXX - a note moved to another folder isn't noticed until it's
+     * modified, if moving it doesn't change its modification date
+     */
+    private static void watch(Connection conn)
+                                throws SQLException, IOException {
+        File file = new File(db).getAbsoluteFile();
+        Set<String> names = new HashSet<>(Arrays.asList(
+                                file.getName(), file.getName() + "-wal"));
+        WatchService ws = FileSystems.getDefault().newWatchService();
+        file.getParentFile().toPath().register(ws,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+
+        Double from = since;
+        for (;;) {
+            try {
+                Double last = export(conn, from);
+                if (last != null && (from == null || last > from))
+                    from = last;
+                manifest = saved;
+            } catch (SQLException ex) {
+                // maybe Notes was in the middle of something, try again
+                err("can't save notes: %s", ex.getMessage());
+                manifest = Manifest.load(root);
+                layout = new OutputLayout(root);
+            }
+            if (index != null) {
+                oldIndex = NoteIndex.open(root);
+                index = new NoteIndex();
+            }
+            if (verbose)
+                System.out.println("Watch: " + file);
+            waitForChange(ws, names);
+        }
+    }
+
+    /**
+     * Wait for one of the named files to change, and then for the
+     * changes to stop for a while.
+     */
+    private static void waitForChange(WatchService ws, Set<String> names)
+                                throws IOException {
+        try {
+            while (!changed(ws.take(), names))
+                ;
+            long now = System.nanoTime();
+            long end = now + WATCH_MAX_DELAY_MS * 1000000;
+            long quiet = now + WATCH_QUIET_MS * 1000000;
+            while ((now = System.nanoTime()) < Math.min(quiet, end)) {
+                WatchKey key = ws.poll(Math.min(quiet, end) - now,
+                                        TimeUnit.NANOSECONDS);
+                if (key != null && changed(key, names))
+                    quiet = System.nanoTime() + WATCH_QUIET_MS * 1000000;
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Did any of the named files change?
+     */
+    private static boolean changed(WatchKey key, Set<String> names)
+                                throws IOException {
+        boolean changed = false;
+        for (WatchEvent<?> ev : key.pollEvents()) {
+            if (ev.kind() == StandardWatchEventKinds.OVERFLOW ||
+                    names.contains(ev.context().toString()))
+                changed = true;
+        }
+        if (!key.reset())
+            throw new IOException("can't watch " + key.watchable());
+        return changed;
+    }
+
+    /**
+     * Read the data for the note.
+     */
+    private static byte[] readData(PreparedStatement dataStmt, int pk)
+                                throws SQLException {
+        dataStmt.setInt(1, pk);
+        try (ResultSet rs = dataStmt.executeQuery()) {
+            return rs.next() ? rs.getBytes(1) : null;
+        }
+    }
+
+    /**
+     * Return the pks of the notes that still exist.
+     */
+    private static Set<Integer> liveNotes(Connection conn)
+                                throws SQLException {
+        Set<Integer> live = new HashSet<>();
+        String sql = liveQuery;
+        if (!all)
+            sql += " WHERE c2.ZTITLE2 IS NOT NULL";
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next())
+                live.add(rs.getInt(1));
+        }
+        return live;
+    }
+
+    /**
+     * If the note was saved by the previous run in all the selected
+     * formats, and hasn't changed since, return the manifest entries
+     * for it, in the order of the formats.
+     */
+    private static List<Manifest.Entry> unchanged(int pk, String noteID,
+                                double modified) {
+        if (manifest == null)
+            return null;
+        // a note has to be saved again to add it to the index
+        if (index != null && (oldIndex == null || !oldIndex.contains(pk)))
+            return null;
+        List<Manifest.Entry> entries = new ArrayList<>(formats.size());
+        for (String format : formats) {
+            Manifest.Entry prev = manifest.get(pk, format);
+            if (prev == null || !prev.isCurrent(noteID, modified, format) ||
+                    !new File(root, prev.path).exists())
+                return null;
+            entries.add(prev);
+        }
+        return entries;
+    }
+
+    /**
+     * Were all the files saved in the named folder?
+     */
+    private static boolean inFolder(List<Manifest.Entry> entries,
+                                String folder) {
+        for (Manifest.Entry e : entries)
+            if (!e.inFolder(folder))
+                return false;
+        return true;
+    }
+
+    /**
+     * The rendered form of a note; the raw bytes, and either the
+     * decoded content (and its compiled program) to be rendered as
+     * it's written, or the rendered text for each format.
+     */
+    private static class Output {
+        NoteContent content;
+        RenderProgram program;
+        CharArrayWriter[] text;
+        byte[] raw;
+        Map<String, int[]> terms;       // for the index
+    }
+
+    /**
+     * Decode and render the note.
+     * Called from the worker threads.
+     *
+     * With a single thread, the note is rendered directly to the file
+     * as it's written.  Otherwise, the note is rendered here, by the
+     * worker thread, and the writer thread copies it to the file.
+     * The note's styles are interned in the export's style table.
+     */
+    private static Output render(Note note, StyleTable styles)
+                                throws IOException {
+        Output out = new Output();
+        if (note.data == null) {
+            out.content = new NoteContent("<NO DATA>", null); // XXX
+        } else {
+            ArchivedObjectReader nr = null;
+            if (raw && compressed)
+                out.raw = note.data;    // saved as stored, not inflated
+            else if (raw)
+                out.raw = (nr = inflate(note.data)).getBytes();
+            if (!raw || formats.size() > 1 || index != null) {
+                if (nr == null)
+                    nr = inflate(note.data);
+                out.content = decodeNote(nr,
+                                        html || markdown || (txt && marked),
+                                        styles);
+                if (out.content.attributes != null)
+                    prefetch(out.content.attributes);
+            }
+            if (index != null)
+                out.terms = NoteIndex.tokenize(out.content.text);
+        }
+        if (threads > 1 && out.content != null) {
+            out.text = new CharArrayWriter[formats.size()];
+            for (int i = 0; i < formats.size(); i++) {
+                if (isRaw(formats.get(i)))
+                    continue;
+                out.text[i] = new CharArrayWriter();
+                NoteWriter w = new NoteWriter(out.text[i]);
+                writeNoteBody(out, formats.get(i), w);
+                w.finish();
+            }
+            out.content = null;
+            out.program = null;
+        }
+        return out;
+    }
+
+    /**
+     * Inflate the gzipped note data.
+     * The reader uses the thread's buffer, which is reused for
+     * the next note, so it's only used while decoding.
+     */
+    private static ArchivedObjectReader inflate(byte[] data)
+                                throws IOException {
+        return NoteInflater.inflate(data);
+    }
+
+    /**
+     * Is the format one of the raw formats, raw or raw.gz?
+     */
+    private static boolean isRaw(String format) {
+        return format.startsWith("raw");
+    }
+
+    /**
+     * Queue the tables used by the note to be read, and start copying
+     * its attachments, while the note is rendered.
+     */
+    private static void prefetch(AttributeRuns ar) {
+        for (int i = 0; i < ar.styleSets(); i++) {
+            for (Style st : ar.styleSet(i)) {
+                if (!(st instanceof UuidStyle))
+                    continue;
+                UuidStyle us = (UuidStyle)st;
+                if (Table.isTable(us)) {
+                    if (tables != null)
+                        tables.prefetch(us.uuid);
+                } else if (attachments != null)
+                    attachments.prefetch(us);
+            }
+        }
+    }
+
+    /**
+     * Save (or print) the rendered note, in each format.
+     * Called from the writer thread, in order, so the file
+     * names chosen don't depend on the number of threads.
+     * If there's no rendered output, the unchanged note
+     * has been moved to another folder.
+     */
+    private static void saveNote(Note note, Output out) throws IOException {
+        if (print) {
+            if (verbose)
+                System.out.println("Note: " + note.title);
+            for (int i = 0; i < formats.size(); i++) {
+                if (isRaw(formats.get(i))) {
+                    if (out.raw != null)
+                        System.out.write(out.raw);
+                } else {
+                    NoteWriter w = new NoteWriter(
+                                        new OutputStreamWriter(System.out));
+                    writeOutput(out, i, w);
+                    w.write(System.lineSeparator());
+                    w.finish();
                 }
-            } else if (print) {
-                try (InputStream bis = rs.getBinaryStream("data")) {
-                    String data = getNoteBody(bis);
-                    System.out.println(data);
+            }
+            return;
+        }
+
+        String path = null;
+        for (int i = 0; i < formats.size(); i++) {
+            String p = saveNote(note, out, i);
+            if (i == 0)
+                path = p;
+        }
+        if (index != null && out != null)
+            index.add(note.pk, path, out.terms != null ? out.terms :
+                                    Collections.<String, int[]>emptyMap());
+    }
+
+    /**
+     * Save the note in the i'th format, returning the path of the file
+     * relative to the output directory.
+     */
+    private static String saveNote(Note note, Output out, int i)
+                                throws IOException {
+        String format = formats.get(i);
+        String ext = "." + format;
+
+        // remove the previously saved version of the note
+        File prevFile = null;
+        if (manifest != null) {
+            Manifest.Entry prev = manifest.get(note.pk, format);
+            if (prev != null) {
+                prevFile = new File(root, prev.path);
+                if (out != null) {
+                    prevFile.delete();
+                    layout.release(prevFile, ext);
+                }
+            }
+        }
+
+        String title = note.title.replace('/', '-');
+        File file = layout.allocate(note.folderName, title, ext);
+        String path = note.folderName + "/" + file.getName();
+
+        if (out == null) {
+            if (verbose)
+                System.out.println("Move: " + prevFile + " to " + file);
+            if (!prevFile.renameTo(file))
+                throw new IOException("can't rename " + prevFile +
+                                        " to " + file);
+            layout.release(prevFile, ext);
+        } else if (archive != null) {
+            if (verbose)
+                System.out.println("Save: " + path);
+            archive.add(path, outputBytes(out, i),
+                        (long)((note.modified + CORE_DATA_EPOCH) * 1000));
+        } else if (store != null) {
+            if (verbose)
+                System.out.println("Save: " + file);
+            store.save(outputBytes(out, i), file);
+        } else {
+            if (verbose)
+                System.out.println("Save: " + file);
+
+            if (isRaw(format)) {
+                try (FileOutputStream os = new FileOutputStream(file)) {
+                    if (out.raw != null)
+                        os.write(out.raw);
                 }
             } else {
-                try (FileWriter fw = new FileWriter(note)) {
-                    try (InputStream bis = rs.getBinaryStream("data")) {
-                        String data = getNoteBody(bis);
-                        fw.write(data);
-                    }
+                try (NoteWriter w = new NoteWriter(new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(file),
+                                                StandardCharsets.UTF_8)))) {
+                    writeOutput(out, i, w);
                 }
             }
         }
+
+        if (saved != null)
+            saved.put(new Manifest.Entry(note.pk, note.noteID, note.modified,
+                            format, path));
+        return path;
+    }
+
+    /**
+     * Return the note in the i'th format, as it would be saved.
+     */
+    private static byte[] outputBytes(Output out, int i) throws IOException {
+        if (isRaw(formats.get(i)))
+            return out.raw != null ? out.raw : new byte[0];
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (NoteWriter w = new NoteWriter(
+                new OutputStreamWriter(bos, StandardCharsets.UTF_8))) {
+            writeOutput(out, i, w);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Write the text of the note rendered in the i'th format.
+     */
+    private static void writeOutput(Output out, int i, NoteWriter w)
+                                throws IOException {
+        if (out.text != null)
+            out.text[i].writeTo(w);
+        else
+            writeNoteBody(out, formats.get(i), w);
     }
 
     private static final float DEFAULT_FONT_SIZE = 12;
 
-    private static String getNoteBody(InputStream is) throws IOException {
-        if (is == null) {
-            return "<NO DATA>"; // XXX
+    /**
+     * Write the decoded note in the format.
+     * The note's styles are compiled once, for all the formats.
+     */
+    private static void writeNoteBody(Output out, String format,
+                                NoteWriter w) throws IOException {
+        NoteContent nc = out.content;
+        if (nc.attributes == null || (format.equals("txt") && !marked)) {
+            w.write(nc.text);
+            return;
         }
+        if (out.program == null)
+            out.program = new RenderProgram(nc.text, nc.attributes);
+        NoteRenderer r;
+        if (format.equals("html"))
+            r = new HtmlRenderer();
+        else if (format.equals("md"))
+            r = new MarkdownRenderer();
+        else
+            r = new MarkedRenderer();
+        r.setAttachments(attachments);
+        r.setTables(tables);
+        r.render(out.program, w);
+    }
 
-        is = new GZIPInputStream(is);
-        ArchivedObjectReader nr = new ArchivedObjectReader(is);
+    /**
+     * Decode the inflated note data.
+     * The attributes are only decoded if needed, using the
+     * interned styles in the table.
+     */
+    static NoteContent decodeNote(ArchivedObjectReader nr,
+                                boolean needAttributes, StyleTable table)
+                                throws IOException {
         ObjectData nd = nr.next();
         assert nd.index() == 1 && nd.getInt() == 0;
         nd = nr.next();
@@ -268,16 +1049,21 @@ public class SaveNotes {
         debug("Text len: %d%n", text.length());
         debug("Text:%n%s%n", text);
         
-        if (!marked && !html && !markdown)
-            return text;
+        if (!needAttributes)
+            return new NoteContent(text, null);
 
         /*
          * Loop through the "edit record" elements.
          * This list grows every time an edit is made.
          * The positions in this list refer to positions
          * that don't exist in the current string.
+         *
+         * None of this data is used, so unless we're debugging just
+         * skip over the records without decoding them.
          */
-        for (;;) {
+        while (!debug && nr.peekIndex() == 3)
+            nr.skip();
+        while (debug) {
             nd = nr.next();
             assert nd.index() == 3;
             ArchivedObjectReader rr = nd.getObject();
@@ -355,8 +1141,8 @@ public class SaveNotes {
         ArchivedObjectReader nr3 = nd2.getObject();
         ObjectData nd3 = nr3.next();
         assert nd3.index() == 1;
-        byte[] ba4 = nd3.getBytes();
-        debug("Unknown: %s%n", bytesToHex(ba4));
+        if (debug)
+            debug("Unknown: %s%n", bytesToHex(nd3.getBytes()));
 
         int v1s = -1, v2s = -1;
         nd3 = nr3.next();
@@ -375,764 +1161,355 @@ public class SaveNotes {
             assert v2d.index() == 1;
             v2s = v2d.getInt();
         }
-        debug("Vers: %02x %02x%n", v1s, v2s);
+        if (debug)
+            debug("Vers: %02x %02x%n", v1s, v2s);
 
         /*
          * Loop through the "attribute" elements.
          */
+        AttributeDecoder ad = new AttributeDecoder(table);
+        nr.accept(ad);
+        AttributeRuns attributes = ad.attributes;
+        int totalLen = ad.totalLen;
+        if (totalLen != text.length())
+            err("text len %d, attr len %d", text.length(), totalLen);
+        return new NoteContent(text, attributes);
+    }
+
+    /**
+     * Decodes the "attribute" elements into attribute runs.
+     * The data items are delivered by the visitor API and stored directly
+     * into the fields below, without allocating an ObjectData, a boxed
+     * value, or a String for each item.
+     */
+    private static class AttributeDecoder implements ArchivedObjectVisitor {
+        final AttributeRuns attributes = new AttributeRuns();
+        private final StyleTable table;
+        private final Style[] styles = new Style[6];    // for each run
         int totalLen = 0;
-        List<Attribute> attributes = new ArrayList<>();
-        for (int attrNum = 1; (nd = nr.next()) != null; attrNum++) {
-            assert nd.index() == 5;
-            // these are the individual style elements that are attached to
-            // an attribute
-            int style = 0;
-            String fname = null;
-            float fsize = DEFAULT_FONT_SIZE;
-            Color color = null;
-            String uuid = null;
-            String utype = null;
-            String url = null;
-            int parastyle = -1;
-            boolean checked = false;
-            int indent = 0;
-
-            debug("Attr: %s%n", bytesToHex(nd.getBytes()));
-            ArchivedObjectReader anr = nd.getObject();
-            ObjectData ad = anr.next();
-            assert ad.index() == 1;
-            int len = ad.getInt();
-            debug("Attr %d: len %d%n\t", attrNum, len);
-            totalLen += len;
-            // much of the following data is optional
-            aloop:
-            while ((ad = anr.next()) != null) {
-                switch (ad.index()) {
-                case 2:
-                    // paragraph style
-                    ArchivedObjectReader psr = ad.getObject();
-                    int paraflag = -1;  // XXX - don't know what this is
-                    int p2 = -1;        // XXX - don't know what this is
-                    int p7 = -1;        // XXX - don't know what this is
-                    ObjectData psd;
-                    psloop:
-                    while ((psd = psr.next()) != null) {
-                        switch (psd.index()) {
-                        case 1:
-                            parastyle = psd.getInt();
-                            break;
-                        case 2:
-                            p2 = psd.getInt();
-                            break;
-                        case 3:
-                            paraflag = psd.getInt();
-                            break;
-                        case 4:
-                            indent = psd.getInt();
-                            debug("indent %d ", indent);
-                            break;
-                        case 5:
-                            // a nested struct with another nested struct
-                            // and an int; don't know what this is
-                            ArchivedObjectReader psr2 = psd.getObject();
-                            ObjectData psd2 = psr2.next();
-                            assert psd2.index() == 1;
-                            debug("para5 bytes [%s] ",
-                                    bytesToHex(psd2.getBytes()));
-                            psd2 = psr2.next();
-                            assert psd2.index() == 2;
-                            checked = psd2.getBoolean();
-                            debug("checked %b ", checked);
-                            break;
-                        case 7:
-                            p7 = psd.getInt();
-                            break;
-                        default:
-                            debug("para bytes [%s] ",
-                                    bytesToHex(psd.getBytes()));
-                            err("Unexpected paragraph data %d", psd.index());
-                            break psloop;
-                        }
-                    }
-                    debug("parastyle %d paraflag %d p2 %d p7 %d ",
-                                        parastyle, paraflag, p2, p7);
-                    break;
-                case 3:
-                    ArchivedObjectReader fnr = ad.getObject();
-                    ObjectData fnd;
-                    floop:
-                    while ((fnd = fnr.next()) != null) {
-                        switch (fnd.index()) {
-                        case 1:
-                            if (fname != null)
-                                err("Already saw font-name %s", fname);
-                            fname = fnd.getString();
-                            debug("font-name %s ", fname);
-                            break;
-                        case 2:
-                            if (fsize != DEFAULT_FONT_SIZE)
-                                err("Already saw font-size %f", fsize);
-                            fsize = fnd.getFloat();
-                            debug("font-size %s ", fontSize(fsize));
-                            break;
-                        case 3:
-                            int fb = fnd.getInt();
-                            // this always has the value 1, or doesn't exist
-                            debug("font-byte %d ", fb);
-                            break;
-                        default:
-                            err("Unexpected font attribute %s",
-                                    bytesToHex(fnd.getBytes()));
-                            break floop;
-                        }
-                    }
+
+        // path[i] is the index of the enclosing object at depth i;
+        // depth 0 is the list of attributes, depth 1 is an attribute,
+        // depth 2 is a style element of an attribute, etc.
+        private final int[] path = new int[4];
+        private int depth = 0;
+        private int ignore = -1;    // skip items at this depth or deeper
+
+        private int attrNum = 0;
+
+        // these are the individual style elements that are attached to
+        // an attribute
+        private int style;
+        private String fname;
+        private float fsize;
+        private float red, green, blue, alpha;
+        private Color color;
+        private String uuid;
+        private String utype;
+        private String url;
+        private int parastyle;
+        private boolean checked;
+        private int indent;
+        private int len;
+
+        private int paraflag;   // XXX - don't know what this is
+        private int p2;         // XXX - don't know what this is
+        private int p7;         // XXX - don't know what this is
+
+        AttributeDecoder(StyleTable table) {
+            this.table = table;
+        }
+
+        public void intValue(int index, long lval) {
+            if (ignore >= 0 && depth >= ignore)
+                return;
+            int val = (int)lval;
+            switch (depth) {
+            case 1:
+                switch (index) {
+                case 1:
+                    len = val;
+                    if (debug)
+                        debug("Attr %d: len %d%n\t", attrNum, len);
+                    totalLen += len;
                     break;
                 case 5:
-                    int sint = ad.getInt();
-                    debug("style %x ", sint);
-                    style |= sint;
+                    if (debug)
+                        debug("style %x ", val);
+                    style |= val;
                     break;
                 case 6:
-                    int t2 = ad.getInt();
-                    debug("underline %d ", t2);
+                    if (debug)
+                        debug("underline %d ", val);
                     style |= TextStyle.UNDERLINE;
                     break;
                 case 7:
-                    int t6 = ad.getInt();
-                    debug("strikethrough %d ", t6);
+                    if (debug)
+                        debug("strikethrough %d ", val);
                     style |= TextStyle.STRIKETHROUGH;
                     break;
                 case 8:
-                    int baseline = ad.getInt();
-                    debug("baseline %d ", baseline);
+                    if (debug)
+                        debug("baseline %d ", val);
+                    break;
+                case 11:        // XXX - don't know what this is yet
+                    if (debug)
+                        debug("0x58=%d ", val);
+                    break;
+                default:
+                    unexpected(index, null, 0, 0);
+                }
+                break;
+            case 2:
+                if (path[1] == 2) {
+                    // paragraph style
+                    switch (index) {
+                    case 1:
+                        parastyle = val;
+                        break;
+                    case 2:
+                        p2 = val;
+                        break;
+                    case 3:
+                        paraflag = val;
+                        break;
+                    case 4:
+                        indent = val;
+                        if (debug)
+                            debug("indent %d ", indent);
+                        break;
+                    case 7:
+                        p7 = val;
+                        break;
+                    default:
+                        unexpected(index, null, 0, 0);
+                    }
+                } else if (path[1] == 3 && index == 3) {
+                    // this always has the value 1, or doesn't exist
+                    if (debug)
+                        debug("font-byte %d ", val);
+                } else {
+                    unexpected(index, null, 0, 0);
+                }
+                break;
+            case 3:
+                if (path[1] == 2 && path[2] == 5 && index == 2) {
+                    assert val == 0 || val == 1;
+                    checked = val == 1;
+                    if (debug)
+                        debug("checked %b ", checked);
+                } else {
+                    unexpected(index, null, 0, 0);
+                }
+                break;
+            default:
+                unexpected(index, null, 0, 0);
+            }
+        }
+
+        public void floatValue(int index, float val) {
+            if (ignore >= 0 && depth >= ignore)
+                return;
+            if (depth == 2 && path[1] == 3 && index == 2) {
+                if (fsize != DEFAULT_FONT_SIZE)
+                    err("Already saw font-size %f", fsize);
+                fsize = val;
+                if (debug)
+                    debug("font-size %s ", NoteRenderer.fontSize(fsize));
+            } else if (depth == 2 && path[1] == 10) {
+                switch (index) {
+                case 1:
+                    red = val;
+                    break;
+                case 2:
+                    green = val;
+                    break;
+                case 3:
+                    blue = val;
                     break;
+                case 4:
+                    alpha = val;
+                    break;
+                default:
+                    unexpected(index, null, 0, 0);
+                }
+            } else {
+                unexpected(index, null, 0, 0);
+            }
+        }
+
+        public boolean bytesValue(int index, byte[] buf, int off, int len) {
+            if (ignore >= 0 && depth >= ignore)
+                return false;
+            switch (depth) {
+            case 0:
+                assert index == 5;
+                startAttribute();
+                if (debug)
+                    debug("Attr: %s%n",
+                        bytesToHex(Arrays.copyOfRange(buf, off, off + len)));
+                return enter(index);
+            case 1:
+                switch (index) {
+                case 2:
+                    // paragraph style
+                    paraflag = p2 = p7 = -1;
+                    return enter(index);
+                case 3:
+                    // font
+                    return enter(index);
                 case 9:
                     if (url != null)
                         err("Already saw url %s", url);
-                    url = ad.getString();
-                    debug("url %s ", url);
-                    break;
+                    url = string(buf, off, len);
+                    if (debug)
+                        debug("url %s ", url);
+                    return false;
                 case 10:
                     if (color != null)
                         err("Already saw color %s", color.toString());
-                    ArchivedObjectReader cnr = ad.getObject();
-                    float red = 0, green = 0, blue = 0, alpha = 0;
-                    ObjectData cnd = cnr.next();
-                    assert cnd.index() == 1;
-                    red = cnd.getFloat();
-                    cnd = cnr.next();
-                    assert cnd.index() == 2;
-                    green = cnd.getFloat();
-                    cnd = cnr.next();
-                    assert cnd.index() == 3;
-                    blue = cnd.getFloat();
-                    cnd = cnr.next();
-                    assert cnd.index() == 4;
-                    alpha = cnd.getFloat();
-                    cnd = cnr.next();
-                    assert cnd == null;
-                    color = new Color(red, green, blue, alpha);
-                    debug("color %s ", color.toString());
-                    break;
-                case 11:        // XXX - don't know what this is yet
-                    int t4 = ad.getInt();
-                    debug("0x58=%d ", t4);
-                    break;
+                    red = green = blue = alpha = 0;
+                    return enter(index);
                 case 12:
                     // this is a UUID plus a string type
                     // the uuid indexes ZICCLOUDSYNCINGOBJECT/ZIDENTIFIER
                     if (uuid != null)
                         err("Already saw uuid %s", uuid);
-                    ArchivedObjectReader inr = ad.getObject();
-                    ObjectData ind = inr.next();
-                    assert ind.index() == 1;
-                    uuid = ind.getString();
-                    ind = inr.next();
-                    assert ind.index() == 2;
-                    utype = ind.getString();
-                    ind = inr.next();
-                    assert ind == null;
-                    debug("uuid %s type %s ", uuid, utype);
-                    break;
-                default:
-                    err("Unexpected attribute data: %d%n%s",
-                            ad.index(), bytesToHex(ad.getBytes()));
-                    break aloop;
-                }
-            }
-            debug("%n");
-
-            Attribute a = new Attribute(len);
-            // XXX - unify all the list styles?
-            if (parastyle == ParagraphStyle.CHECKLIST)
-                a.styles().add(new ChecklistStyle(checked, indent));
-            else if (parastyle >= ParagraphStyle.LIST_START)
-                a.styles().add(new ListStyle(parastyle, indent));
-            else
-                a.styles().add(new ParagraphStyle(parastyle));
-            if (uuid != null)
-                a.styles().add(new UuidStyle(uuid, utype));
-            if (url != null)
-                a.styles().add(new UrlStyle(url));
-            if (fname != null || fsize != DEFAULT_FONT_SIZE)
-                a.styles().add(new FontStyle(fname, fsize));
-            if (style != 0)
-                a.styles().add(new TextStyle(style));
-            if (color != null)
-                a.styles().add(new ColorStyle(color));
-            attributes.add(a);
-        }
-        if (totalLen != text.length())
-            err("text len %d, attr len %d", text.length(), totalLen);
-
-        if (html)
-            return getHtmlText(text, attributes);
-        else if (markdown)
-            return getMarkdownText(text, attributes);
-        else
-            return getMarkedText(text, attributes);
-    }
-
-    /**
-     * Given the plain text and list of Attributes, return a string
-     * with markers showing where each attribute applies.
-     */
-    private static String getMarkedText(String text,
-                                            List<Attribute> attributes) {
-        StringBuilder mtext = new StringBuilder();
-        int anum = 1;
-        int tpos = 0;
-        for (Attribute a : attributes) {
-            mtext.append('<').append(anum).append('>');
-            mtext.append(text.substring(tpos, tpos + a.length()));
-            mtext.append("</").append(anum).append('>');
-            tpos += a.length();
-            anum++;
-        }
-        return mtext.toString();
-    }
-
-    /**
-     * Given the plain text and list of Attributes, return a string
-     * with HTML markup.
-     *
-     * XXX - could detect title/header plus font size to change "h" level.
-     * XXX - many more cases to handle below.
-     */
-    private static String getHtmlText(String text,
-                                            List<Attribute> attributes) {
-        StringBuilder mtext = new StringBuilder();
-        int tpos = 0;
-        ParagraphStyle curps = new ParagraphStyle(ParagraphStyle.NONE);
-        for (Attribute a : attributes) {
-            String atext = text.substring(tpos, tpos + a.length());
-
-            /*
-             * Process each "line" of the text.
-             */
-            int starti = 0;
-            while (starti >= 0) {
-                String line;
-                int nl = atext.indexOf('\n', starti);
-                if (nl >= 0) {
-                    nl++;
-                    line = atext.substring(starti, nl);
-                    starti = nl < atext.length() ? nl : -1;
-                } else {
-                    line = atext.substring(starti);
-                    starti = -1;
+                    return enter(index);
                 }
-
-                /*
-                 * If the text ends with a newline, move it out.
-                 */
-                boolean needNewline = false;
-                if (line.endsWith("\n")) {
-                    line = line.substring(0, line.length() - 1);
-                    needNewline = true;
+                break;
+            case 2:
+                if (path[1] == 2 && index == 5) {
+                    // a nested struct with another nested struct
+                    // and an int; don't know what this is
+                    return enter(index);
+                } else if (path[1] == 3 && index == 1) {
+                    if (fname != null)
+                        err("Already saw font-name %s", fname);
+                    fname = string(buf, off, len);
+                    if (debug)
+                        debug("font-name %s ", fname);
+                    return false;
+                } else if (path[1] == 12 && index == 1) {
+                    uuid = string(buf, off, len);
+                    return false;
+                } else if (path[1] == 12 && index == 2) {
+                    utype = string(buf, off, len);
+                    return false;
                 }
-
-                /*
-                 * For each style, add the opening html and save the
-                 * closing html.
-                 */
-                List<String> close = new ArrayList<String>();       // a stack
-                for (Style s : a.styles()) {
-                    if (s instanceof ParagraphStyle) {
-                        ParagraphStyle ps = (ParagraphStyle)s;
-                        boolean psHandled = false;
-                        if (ps instanceof ListStyle &&
-                                curps instanceof ListStyle) {
-                            // nested lists
-                            ListStyle psl = (ListStyle)ps;
-                            ListStyle curpsl = (ListStyle)curps;
-                            if (psl.indent > curpsl.indent) {
-                                // start new indented
-                                paraStart(ps, mtext);
-                                psHandled = true;
-                            } else if (psl.indent < curpsl.indent) {
-                                // end previous indented
-                                paraEnd(curps, mtext);
-                                psHandled = true;
-                            }
-                        }
-                        if (!psHandled && !ps.equals(curps)) {
-                            // terminate previous paragraph style
-                            paraEnd(curps, mtext);
-
-                            // start new paragraph style
-                            paraStart(ps, mtext);
-                        }
-
-                        if (endsWithNewline(mtext)) {
-                            switch (ps.style) {
-                            case ParagraphStyle.NONE:
-                                // if line starts with whitespace, replace
-                                // each whitespace char with "&nbsp;"
-                                if (line.startsWith(" ") ||
-                                        line.startsWith("\t")) {
-                                    int i;
-                                    for (i = 0; i < line.length(); i++) {
-                                        char c = line.charAt(i);
-                                        if (c != ' ' && c != '\t')
-                                            break;
-                                        if (c == '\t')
-                                            mtext.append(
-                            "&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
-                                        else
-                                            mtext.append("&nbsp;");
-                                    }
-                                    line = line.substring(i);
-                                }
-                                break;
-                            case ParagraphStyle.BULLET:
-                            case ParagraphStyle.DASHED:
-                            case ParagraphStyle.NUMBERED:
-                                mtext.append("<li>");
-                                break;
-                            case ParagraphStyle.CHECKLIST:
-                                ChecklistStyle cs = (ChecklistStyle)ps;
-                                if (cs.checked)
-                                    mtext.append("<li><input checked=\"\" " +
-                                        "disabled=\"\" type=\"checkbox\">");
-                                else
-                                    mtext.append("<li><input disabled=\"\" " +
-                                                "type=\"checkbox\">");
-                                break;
-                            }
-                        }
-
-                        curps = ps;
-                    } else if (s instanceof UuidStyle) {
-                        UuidStyle us = (UuidStyle)s;
-                        mtext.append(String.format("<INSERT UUID %s, TYPE %s>",
-                                                    us.uuid, us.type));
-                        close.add("</INSERT>");
-                    } else if (s instanceof UrlStyle) {
-                        UrlStyle us = (UrlStyle)s;
-                        mtext.append("<a href=\"").append(us.url).append("\">");
-                        close.add("</a>");
-                    } else if (s instanceof FontStyle) {
-                        FontStyle fs = (FontStyle)s;
-                        // XXX - font name ignored for now
-                        // XXX - is this the right way to handle non-integer sizes?
-                        mtext.append("<font size=\"").append(fontSize(fs.size)).
-                                append("\">");
-                        close.add("</font>");
-                    } else if (s instanceof TextStyle) {
-                        TextStyle ts = (TextStyle)s;
-                        if ((ts.style & TextStyle.BOLD) != 0) {
-                            mtext.append("<b>");
-                            close.add("</b>");
-                        }
-                        if ((ts.style & TextStyle.ITALIC) != 0) {
-                            mtext.append("<i>");
-                            close.add("</i>");
-                        }
-                        if ((ts.style & TextStyle.UNDERLINE) != 0) {
-                            mtext.append("<u>");
-                            close.add("</u>");
-                        }
-                        if ((ts.style & TextStyle.STRIKETHROUGH) != 0) {
-                            mtext.append("<del>");
-                            close.add("</del>");
-                        }
-                    } else if (s instanceof ColorStyle) {
-                        ColorStyle cs = (ColorStyle)s;
-                        // XXX - now what?
-                    } else {
-                        mtext.append("<UNKNOWN>");
-                        close.add("</UNKNOWN>");
-                    }
+                break;
+            case 3:
+                if (path[1] == 2 && path[2] == 5 && index == 1) {
+                    if (debug)
+                        debug("para5 bytes [%s] ", bytesToHex(
+                                Arrays.copyOfRange(buf, off, off + len)));
+                    return false;
                 }
+                break;
+            }
+            unexpected(index, buf, off, len);
+            return false;
+        }
 
-                // Add the text.
-                mtext.append(htmlText(line));
-
-                /*
-                 * Add the closing elements, in reverse order.
-                 */
-                for (int i = close.size() - 1; i >= 0; i--)
-                    mtext.append(close.get(i));
-
-                if (needNewline) {
-                    switch (curps.style) {
-                    case ParagraphStyle.NONE:
-                        mtext.append("\n<br/>\n");
-                        break;
-                    case ParagraphStyle.BULLET:
-                    case ParagraphStyle.DASHED:
-                    case ParagraphStyle.NUMBERED:
-                    case ParagraphStyle.CHECKLIST:
-                        mtext.append("</li>\n");
-                        break;
-                    }
+        public void endObject(int index) {
+            depth--;
+            if (depth < ignore)
+                ignore = -1;
+            switch (depth) {
+            case 0:
+                endAttribute();
+                break;
+            case 1:
+                if (index == 2) {
+                    if (debug)
+                        debug("parastyle %d paraflag %d p2 %d p7 %d ",
+                                            parastyle, paraflag, p2, p7);
+                } else if (index == 10) {
+                    color = new Color(red, green, blue, alpha);
+                    if (debug)
+                        debug("color %s ", color.toString());
+                } else if (index == 12) {
+                    if (debug)
+                        debug("uuid %s type %s ", uuid, utype);
                 }
+                break;
             }
-            tpos += a.length();
         }
 
-        // close any open element
-        switch (curps.style) {
-        case ParagraphStyle.NONE:
-            if (mtext.length() > 0)
-                mtext.append("</p>\n");
-            break;
-        case ParagraphStyle.TITLE:
-            mtext.append("</h1>\n");
-            break;
-        case ParagraphStyle.HEADING:
-            mtext.append("</h2>\n");
-            break;
-        case ParagraphStyle.MONO:
-            mtext.append("</code>\n");
-            break;
-        case ParagraphStyle.BULLET:
-        case ParagraphStyle.DASHED:
-        case ParagraphStyle.CHECKLIST:
-            // XXX - doesn't handle indent
-            mtext.append("</ul>\n");
-            break;
-        case ParagraphStyle.NUMBERED:
-            // XXX - doesn't handle indent
-            mtext.append("</ol>\n");
-            break;
-        default:
+        private boolean enter(int index) {
+            path[depth++] = index;
+            return true;
         }
 
-        return mtext.toString();
-    }
-
-    /**
-     * Given the plain text and list of Attributes, return a string
-     * with markdown markup.
-     *
-     * XXX - many more cases to handle below.
-     */
-    private static String getMarkdownText(String text,
-                                            List<Attribute> attributes) {
-        StringBuilder mtext = new StringBuilder();
-        int tpos = 0;
-        ParagraphStyle curps = new ParagraphStyle(ParagraphStyle.NONE);
-        for (Attribute a : attributes) {
-            String atext = text.substring(tpos, tpos + a.length());
-
-            /*
-             * Process each "line" of the text.
-             */
-            int starti = 0;
-            while (starti >= 0) {
-                String line;
-                int nl = atext.indexOf('\n', starti);
-                if (nl >= 0) {
-                    nl++;
-                    line = atext.substring(starti, nl);
-                    starti = nl < atext.length() ? nl : -1;
-                } else {
-                    line = atext.substring(starti);
-                    starti = -1;
-                }
-
-                /*
-                 * If the text ends with a newline, move it out.
-                 */
-                boolean needNewline = false;
-                if (line.endsWith("\n")) {
-                    line = line.substring(0, line.length() - 1);
-                    needNewline = true;
-                }
-
-                /*
-                 * For each style, add the opening markdown and save the
-                 * closing markdown.
-                 */
-                List<String> close = new ArrayList<String>();       // a stack
-                for (Style s : a.styles()) {
-                    if (s instanceof ParagraphStyle) {
-                        ParagraphStyle ps = (ParagraphStyle)s;
-                        if (!ps.equals(curps)) {
-                            // terminate previous paragraph style
-                            // XXX - not for first paragraph
-                            switch (curps.style) {
-                            case ParagraphStyle.MONO:
-                                mtext.append("```\n");
-                                break;
-                            case ParagraphStyle.TITLE:
-                            case ParagraphStyle.HEADING:
-                            case ParagraphStyle.BULLET:
-                            case ParagraphStyle.DASHED:
-                            case ParagraphStyle.NUMBERED:
-                            case ParagraphStyle.CHECKLIST:
-                            default:
-                                if (!endsWithNewline(mtext))
-                                    mtext.append("\n");
-                            }
-
-                            // start new paragraph style
-                            switch (ps.style) {
-                            case ParagraphStyle.NONE:
-                                ensureBlankLine(mtext);
-                                break;
-                            case ParagraphStyle.TITLE:
-                                mtext.append("# ");
-                                break;
-                            case ParagraphStyle.HEADING:
-                                mtext.append("## ");
-                                break;
-                            case ParagraphStyle.MONO:
-                                ensureBlankLine(mtext);
-                                mtext.append("```\n");
-                                break;
-                            case ParagraphStyle.BULLET:
-                            case ParagraphStyle.DASHED:
-                            case ParagraphStyle.NUMBERED:
-                            case ParagraphStyle.CHECKLIST:
-                                break;
-                            default:
-                                // XXX - not handled yet
-                                mtext.append(String.format("<div style=\"%d\">",
-                                                            ps.style));
-                                close.add("</div>");
-                            }
-                        }
-
-                        if (endsWithNewline(mtext)) {
-                            switch (ps.style) {
-                            case ParagraphStyle.NONE:
-                                // if previous line was also a plain line,
-                                // need to add a hard line break
-                                // XXX - Not all markdown displayers agree on
-                                // how to force a line break.  This works for
-                                // GitHub Flavored Markdown, but not MacDown.
-                                // Should expose some properties or options to
-                                // control this behavior.
-                                if (curps.style == ParagraphStyle.NONE &&
-                                        line.length() > 0 &&
-                                        !endsWithBlankLine(mtext)) {
-                                    mtext.setLength(mtext.length() - 1);
-                                    mtext.append("\\\n");
-                                }
-                                // if line starts with whitespace, replace
-                                // each whitespace char with "&nbsp;"
-                                if (line.startsWith(" ") ||
-                                        line.startsWith("\t")) {
-                                    int i;
-                                    for (i = 0; i < line.length(); i++) {
-                                        char c = line.charAt(i);
-                                        if (c != ' ' && c != '\t')
-                                            break;
-                                        if (c == '\t')
-                                            mtext.append(
-                            "&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
-                                        else
-                                            mtext.append("&nbsp;");
-                                    }
-                                    line = line.substring(i);
-                                }
-                                break;
-                            case ParagraphStyle.BULLET:
-                                addIndent(mtext, ((ListStyle)ps).indent);
-                                mtext.append("* ");
-                                break;
-                            case ParagraphStyle.DASHED:
-                                addIndent(mtext, ((ListStyle)ps).indent);
-                                mtext.append("- ");
-                                break;
-                            case ParagraphStyle.NUMBERED:
-                                addIndent(mtext, ((ListStyle)ps).indent);
-                                // XXX - valid markdown, but ugly
-                                mtext.append("1. ");
-                                break;
-                            case ParagraphStyle.CHECKLIST:
-                                ChecklistStyle cs = (ChecklistStyle)ps;
-                                addIndent(mtext, cs.indent);
-                                if (cs.checked)
-                                    mtext.append("- [x] ");
-                                else
-                                    mtext.append("- [ ] ");
-                                break;
-                            }
-                        }
-
-                        curps = ps;
-                    } else if (s instanceof UuidStyle) {
-                        UuidStyle us = (UuidStyle)s;
-                        mtext.append(String.format("<INSERT UUID %s, TYPE %s>",
-                                                    us.uuid, us.type));
-                    } else if (s instanceof UrlStyle) {
-                        UrlStyle us = (UrlStyle)s;
-                        mtext.append("[");
-                        close.add("](" + us.url + ")");
-                    } else if (s instanceof FontStyle) {
-                        FontStyle fs = (FontStyle)s;
-                        // XXX - font name ignored for now
-                        // XXX - is this the right way to handle non-integer sizes?
-                        mtext.append("<font size=\"").append(fontSize(fs.size)).
-                                append("\">");
-                        close.add("</font>");
-                    } else if (s instanceof TextStyle) {
-                        TextStyle ts = (TextStyle)s;
-                        if ((ts.style & TextStyle.BOLD) != 0) {
-                            mtext.append("**");
-                            close.add("**");
-                        }
-                        if ((ts.style & TextStyle.ITALIC) != 0) {
-                            mtext.append("_");
-                            close.add("_");
-                        }
-                        // XXX - works for GitHub
-                        // https://stackoverflow.com/a/47354053/1040885
-                        if ((ts.style & TextStyle.UNDERLINE) != 0) {
-                            mtext.append("<ins>");
-                            close.add("</ins>");
-                        }
-                        // GitHub-flavored markdown
-                        // https://guides.github.com/features/mastering-markdown/#GitHub-flavored-markdown
-                        if ((ts.style & TextStyle.STRIKETHROUGH) != 0) {
-                            mtext.append("~~");
-                            close.add("~~");
-                        }
-                    } else if (s instanceof ColorStyle) {
-                        ColorStyle cs = (ColorStyle)s;
-                        // XXX - now what?
-                    } else {
-                        mtext.append("<UNKNOWN>");
-                        close.add("</UNKNOWN>");
-                    }
-                }
-
-                // Add the text.
-                mtext.append(markdownText(line));
+        /**
+         * Report unexpected data and skip the rest of the
+         * enclosing object.
+         */
+        private void unexpected(int index, byte[] buf, int off, int len) {
+            String data = buf == null ? "" :
+                bytesToHex(Arrays.copyOfRange(buf, off, off + len));
+            if (depth <= 1)
+                err("Unexpected attribute data: %d%n%s", index, data);
+            else if (path[1] == 2)
+                err("Unexpected paragraph data %d", index);
+            else if (path[1] == 3)
+                err("Unexpected font attribute %d %s", index, data);
+            else
+                err("Unexpected data %d %s", index, data);
+            ignore = depth;
+        }
 
-                /*
-                 * Add the closing elements, in reverse order.
-                 */
-                for (int i = close.size() - 1; i >= 0; i--)
-                    mtext.append(close.get(i));
-                if (needNewline)
-                    mtext.append("\n");
-            }
-            tpos += a.length();
+        private void startAttribute() {
+            attrNum++;
+            style = 0;
+            fname = null;
+            fsize = DEFAULT_FONT_SIZE;
+            color = null;
+            uuid = null;
+            utype = null;
+            url = null;
+            parastyle = -1;
+            checked = false;
+            indent = 0;
+            len = 0;
         }
-        return mtext.toString();
-    }
 
-    /**
-     * Convert the plain text to html.
-     * For now, just replace all "," with the html equivalent to
-     * prevent it from looking like an html tag, and replace all
-     * the newlines with <br/>.
-     * XXX - probably more quoting/escaping needs to be done here.
-     */
-    private static String htmlText(String text) {
-        return text.replace("<", "&lt;").replace("\n", "<br/>\n");
-    }
+        private void endAttribute() {
+            if (debug)
+                debug("%n");
 
-    /**
-     * Start paragraph style.
-     */
-    private static void paraStart(ParagraphStyle ps, StringBuilder mtext) {
-        // start new paragraph style
-        switch (ps.style) {
-        case ParagraphStyle.NONE:
-            mtext.append("<p>\n");
-            break;
-        case ParagraphStyle.TITLE:
-            mtext.append("<h1>\n");
-            break;
-        case ParagraphStyle.HEADING:
-            mtext.append("<h2>\n");
-            break;
-        case ParagraphStyle.MONO:
-            mtext.append("<code>\n");
-            break;
-        case ParagraphStyle.BULLET:
-        case ParagraphStyle.DASHED:
-        case ParagraphStyle.CHECKLIST:
-            mtext.append("<ul>\n");
-            break;
-        case ParagraphStyle.NUMBERED:
-            mtext.append("<ol>\n");
-            break;
-        default:
-            // XXX - not handled yet
-            mtext.append(String.format("<div style=\"%d\">", ps.style));
+            int n = 0;
+            /*
+             * Most attributes share a few distinct styles, so use the
+             * interned instances.  URLs and attachment UUIDs are mostly
+             * unique, and aren't worth keeping in the table.
+             */
+            // XXX - unify all the list styles?
+            if (parastyle == ParagraphStyle.CHECKLIST)
+                styles[n++] =
+                    table.intern(new ChecklistStyle(checked, indent));
+            else if (parastyle >= ParagraphStyle.LIST_START)
+                styles[n++] = table.intern(new ListStyle(parastyle, indent));
+            else
+                styles[n++] = table.intern(new ParagraphStyle(parastyle));
+            if (uuid != null)
+                styles[n++] = new UuidStyle(uuid, utype);
+            if (url != null)
+                styles[n++] = new UrlStyle(url);
+            if (fname != null || fsize != DEFAULT_FONT_SIZE)
+                styles[n++] = table.intern(new FontStyle(fname, fsize));
+            if (style != 0)
+                styles[n++] = table.intern(new TextStyle(style));
+            if (color != null)
+                styles[n++] = table.intern(new ColorStyle(color));
+            attributes.add(len, styles, n);
         }
-    }
 
-    /**
-     * End paragraph style.
-     */
-    private static void paraEnd(ParagraphStyle ps, StringBuilder mtext) {
-        switch (ps.style) {
-        case ParagraphStyle.NONE:
-            if (mtext.length() > 0)
-                mtext.append("</p>\n");
-            break;
-        case ParagraphStyle.TITLE:
-            mtext.append("</h1>\n");
-            break;
-        case ParagraphStyle.HEADING:
-            mtext.append("</h2>\n");
-            break;
-        case ParagraphStyle.MONO:
-            mtext.append("</code>\n");
-            break;
-        case ParagraphStyle.BULLET:
-        case ParagraphStyle.DASHED:
-        case ParagraphStyle.CHECKLIST:
-            mtext.append("</ul>\n");
-            break;
-        case ParagraphStyle.NUMBERED:
-            mtext.append("</ol>\n");
-            break;
-        default:
-            mtext.append("</div>\n");
+        private static String string(byte[] buf, int off, int len) {
+            return new String(buf, off, len, StandardCharsets.UTF_8);
         }
     }
 
-    /**
-     * Convert the plain text to markdown.
-     * Turn newlines into hard line breaks.
-     * (Backslash at end of line only works if following
-     * line is not empty.)
-     * XXX - probably more quoting/escaping needs to be done here.
-     */
-    private static String markdownText(String text) {
-        return text.replaceAll("\n([^\n])", "\\\\\n$1");
-    }
-
-    /**
-     * Convert font size to a string.
-     */
-    private static String fontSize(float fs) {
-        int intSize = (int)fs;
-        if ((float)intSize == fs)
-            return Integer.toString(intSize);
-        else
-            return Float.toString(fs);
-    }
-
     public static String bytesToHex(byte[] bytes) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < bytes.length; i++)
@@ -1142,32 +1519,6 @@ public class SaveNotes {
         return sb.toString();
     }
 
-    private static boolean endsWithNewline(StringBuilder sb) {
-        return sb.length() > 0 && sb.charAt(sb.length() - 1) == '\n';
-    }
-
-    private static boolean endsWithBlankLine(StringBuilder sb) {
-        return sb.length() > 1 && sb.charAt(sb.length() - 1) == '\n'
-            && sb.charAt(sb.length() - 2) == '\n';
-    }
-
-    private static void ensureBlankLine(StringBuilder sb) {
-        int len = sb.length();
-        if (len >= 2) {
-            if (sb.charAt(len - 1) != '\n')
-                sb.append("\n\n");
-            else if (sb.charAt(len - 2) != '\n')
-                sb.append('\n');
-        } else if (len == 1 && sb.charAt(0) != '\n') {
-            sb.append("\n\n");
-        }
-    }
-
-    private static void addIndent(StringBuilder sb, int indent) {
-        while (indent-- > 0)
-            sb.append("  ");
-    }
-
     private static void debug(String s, Object... args) {
         if (debug)
             System.out.printf(s, args);
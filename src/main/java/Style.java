@@ -33,11 +33,17 @@
  * Abstract base class for styles.
  */
 public abstract class Style {
-
     /**
      * Compare two objects, which might be null, for equality.
      */
     protected boolean eq(Object s1, Object s2) {
         return s1 == s2 || (s1 != null && s1.equals(s2));
     }
+
+    /**
+     * The hash code of an object, which might be null.
+     */
+    protected int hash(Object o) {
+        return o != null ? o.hashCode() : 0;
+    }
 }
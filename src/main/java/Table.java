@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table (com.apple.notes.table) embedded in a note.
+ *
+ * The table is stored separately from the note, as a gzipped CRDT
+ * document in object archive format.  See NSAttributedString.txt.
+ * Only the text of the cells is decoded.
+ */
+public class Table {
+    public static final String TYPE = "com.apple.notes.table";
+
+    private static final String TABLE = "com.apple.notes.ICTable";
+
+    private final String[][] cells;     // [row][column], null if empty
+
+    private Table(String[][] cells) {
+        this.cells = cells;
+    }
+
+    public int rows() {
+        return cells.length;
+    }
+
+    public int columns() {
+        return cells.length > 0 ? cells[0].length : 0;
+    }
+
+    /**
+     * The text of the cell, or the empty string if the cell is empty.
+     */
+    public String cell(int row, int column) {
+        String s = cells[row][column];
+        return s != null ? s : "";
+    }
+
+    /**
+     * Is the style a reference to a table?
+     */
+    public static boolean isTable(UuidStyle us) {
+        return TYPE.equals(us.type);
+    }
+
+    /**
+     * An object in the document.
+     * Only the parts needed for tables are decoded.
+     */
+    private static class Entry {
+        int type = -1;                  // map type
+        List<int[]> map;                // key, value
+        List<int[]> dictionary;         // key object, value object
+        List<byte[]> order;             // ordered set uuids
+        List<int[]> orderMap;           // uuid object, ordered uuid object
+        String text;                    // note text
+    }
+
+    /**
+     * Decode the gzipped table data.
+     */
+    public static Table decode(byte[] data) throws IOException {
+        ArchivedObjectReader r = NoteInflater.inflate(data);
+        ObjectData od;
+        while ((od = r.next()) != null && od.index() != 2)
+            ;
+        if (od == null)
+            throw new IOException("no table data");
+        r = od.getObject();
+        while ((od = r.next()) != null && od.index() != 3)
+            ;
+        if (od == null)
+            throw new IOException("no table data");
+        r = od.getObject();
+
+        List<Entry> entries = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        Map<ByteBuffer, Integer> uuids = new HashMap<>();
+        while ((od = r.next()) != null) {
+            switch (od.index()) {
+            case 3:
+                entries.add(entry(od.getObject()));
+                break;
+            case 4:
+                keys.add(od.getString());
+                break;
+            case 5:
+                types.add(od.getString());
+                break;
+            case 6:
+                uuids.put(ByteBuffer.wrap(od.getBytes()), uuids.size());
+                break;
+            }
+        }
+
+        Entry table = null;
+        for (Entry e : entries) {
+            if (e.type >= 0 && e.type < types.size() &&
+                    types.get(e.type).equals(TABLE)) {
+                table = e;
+                break;
+            }
+        }
+        if (table == null)
+            throw new IOException("no table");
+
+        // rows and columns first, then the cells
+        Map<Integer, Integer> rows = null;
+        Map<Integer, Integer> columns = null;
+        Entry cellColumns = null;
+        for (int[] kv : table.map) {
+            String key = kv[0] < keys.size() ? keys.get(kv[0]) : "";
+            Entry e = get(entries, kv[1]);
+            if (key.equals("crRows"))
+                rows = order(e, entries, uuids);
+            else if (key.equals("crColumns"))
+                columns = order(e, entries, uuids);
+            else if (key.equals("cellColumns"))
+                cellColumns = e;
+        }
+        if (rows == null || columns == null || cellColumns == null ||
+                cellColumns.dictionary == null)
+            throw new IOException("incomplete table");
+
+        String[][] cells = new String[count(rows)][count(columns)];
+        for (int[] col : cellColumns.dictionary) {
+            Integer c = columns.get(uuid(get(entries, col[0])));
+            Entry cd = get(entries, col[1]);
+            if (c == null || cd == null || cd.dictionary == null)
+                continue;
+            for (int[] row : cd.dictionary) {
+                Integer rw = rows.get(uuid(get(entries, row[0])));
+                Entry cell = get(entries, row[1]);
+                if (rw != null && cell != null)
+                    cells[rw][c] = cell.text;
+            }
+        }
+        return new Table(cells);
+    }
+
+    /**
+     * Decode an object.
+     */
+    private static Entry entry(ArchivedObjectReader r) throws IOException {
+        Entry e = new Entry();
+        ObjectData od;
+        while ((od = r.next()) != null) {
+            switch (od.index()) {
+            case 6:             // dictionary
+                e.dictionary = dictionary(od.getObject());
+                break;
+            case 10:            // note
+                ArchivedObjectReader nr = od.getObject();
+                ObjectData nd;
+                while ((nd = nr.next()) != null)
+                    if (nd.index() == 2)
+                        e.text = nd.getString();
+                break;
+            case 13:            // map
+                e.map = new ArrayList<>();
+                ArchivedObjectReader mr = od.getObject();
+                ObjectData md;
+                while ((md = mr.next()) != null) {
+                    if (md.index() == 1)
+                        e.type = md.getInt();
+                    else if (md.index() == 3)
+                        e.map.add(mapEntry(md.getObject()));
+                }
+                break;
+            case 16:            // ordered set
+                ArchivedObjectReader sr = od.getObject();
+                ObjectData sd;
+                while ((sd = sr.next()) != null)
+                    if (sd.index() == 1)
+                        ordering(sd.getObject(), e);
+                break;
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Decode the ordering of an ordered set.
+     */
+    private static void ordering(ArchivedObjectReader r, Entry e)
+                                throws IOException {
+        e.order = new ArrayList<>();
+        ObjectData od;
+        while ((od = r.next()) != null) {
+            if (od.index() == 1) {
+                ArchivedObjectReader ar = od.getObject();
+                ObjectData ad;
+                while ((ad = ar.next()) != null) {
+                    if (ad.index() != 2)
+                        continue;
+                    ArchivedObjectReader ur = ad.getObject();
+                    ObjectData ud;
+                    while ((ud = ur.next()) != null)
+                        if (ud.index() == 2)
+                            e.order.add(ud.getBytes());
+                }
+            } else if (od.index() == 2)
+                e.orderMap = dictionary(od.getObject());
+        }
+    }
+
+    /**
+     * Decode a dictionary of object ids.
+     */
+    private static List<int[]> dictionary(ArchivedObjectReader r)
+                                throws IOException {
+        List<int[]> d = new ArrayList<>();
+        ObjectData od;
+        while ((od = r.next()) != null) {
+            if (od.index() != 1)
+                continue;
+            int[] kv = { -1, -1 };
+            ArchivedObjectReader er = od.getObject();
+            ObjectData ed;
+            while ((ed = er.next()) != null)
+                if (ed.index() == 1 || ed.index() == 2)
+                    kv[ed.index() - 1] = objectID(ed.getObject());
+            d.add(kv);
+        }
+        return d;
+    }
+
+    /**
+     * Decode a map entry, a key and an object id.
+     */
+    private static int[] mapEntry(ArchivedObjectReader r) throws IOException {
+        int[] kv = { -1, -1 };
+        ObjectData od;
+        while ((od = r.next()) != null) {
+            if (od.index() == 1)
+                kv[0] = od.getInt();
+            else if (od.index() == 2)
+                kv[1] = objectID(od.getObject());
+        }
+        return kv;
+    }
+
+    /**
+     * Return the object index or integer value of the object id.
+     */
+    private static int objectID(ArchivedObjectReader r) throws IOException {
+        int id = -1;
+        ObjectData od;
+        while ((od = r.next()) != null)
+            if (od.index() == 2 || od.index() == 6)
+                id = od.getInt();
+        return id;
+    }
+
+    /**
+     * Return the position of each uuid in the ordered set, indexed by
+     * the uuid's index in the uuids list.
+     */
+    private static Map<Integer, Integer> order(Entry e, List<Entry> entries,
+                                Map<ByteBuffer, Integer> uuids) {
+        Map<Integer, Integer> pos = new HashMap<>();
+        if (e == null || e.order == null)
+            return pos;
+        for (byte[] u : e.order) {
+            Integer i = uuids.get(ByteBuffer.wrap(u));
+            if (i != null && !pos.containsKey(i))
+                pos.put(i, pos.size());
+        }
+        // other uuids for the same positions
+        if (e.orderMap != null) {
+            for (int[] kv : e.orderMap) {
+                Integer p = pos.get(uuid(get(entries, kv[0])));
+                if (p != null)
+                    pos.put(uuid(get(entries, kv[1])), p);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * The number of positions in the ordered set.
+     */
+    private static int count(Map<Integer, Integer> pos) {
+        int n = 0;
+        for (int p : pos.values())
+            n = Math.max(n, p + 1);
+        return n;
+    }
+
+    /**
+     * Return the index in the uuids list of the uuid object,
+     * or -1 if it's not a uuid.
+     */
+    private static int uuid(Entry e) {
+        if (e == null || e.map == null || e.map.isEmpty())
+            return -1;
+        return e.map.get(0)[1];
+    }
+
+    private static Entry get(List<Entry> entries, int i) {
+        return i >= 0 && i < entries.size() ? entries.get(i) : null;
+    }
+}
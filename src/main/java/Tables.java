@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Fetches and decodes the tables embedded in notes.
+ *
+ * Tables are queued when the notes that use them are decoded.
+ * The first time a table that isn't cached is needed, all the queued
+ * tables (for the notes being decoded by all the worker threads) are
+ * fetched with one query.  The decoded tables are kept in an LRU
+ * cache, limited by the total number of cells, so a table that's used
+ * by several notes is only decoded once.
+ *
+ * If the tables can't be read, the notes show them as they did before
+ * tables were supported.  If the query can't be compiled, e.g., in an
+ * older database without the columns, no more tables are read.  If it
+ * fails for some other reason, only the tables in that batch are
+ * treated as unreadable.
+ */
+public class Tables {
+    private static final String query =
+        "SELECT ZIDENTIFIER, ZMERGEABLEDATA FROM ZICCLOUDSYNCINGOBJECT " +
+        " WHERE ZTYPEUTI = '" + Table.TYPE + "' AND ZIDENTIFIER IN (";
+
+    // most tables fetched with one query, well under SQLite's limit
+    // on the number of parameters
+    private static final int BATCH = 100;
+
+    // cached to remember the tables that couldn't be read
+    private static final Object MISSING = new Object();
+
+    // the SQLite result code for an SQL error or missing database,
+    // e.g., "no such column"; others are for a particular query
+    private static final int SQLITE_ERROR = 1;
+
+    private final Connection conn;
+    private final int maxCells;
+    private int cells;                  // in the cache
+    private boolean failed;             // can't query tables
+    private final Set<String> queued = new LinkedHashSet<>();
+    private final LinkedHashMap<String, Object> cache =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Read tables using the connection, caching up to maxCells cells.
+     */
+    public Tables(Connection conn, int maxCells) {
+        this.conn = conn;
+        this.maxCells = maxCells;
+    }
+
+    /**
+     * Queue the table to be fetched, if it's not already cached.
+     */
+    public synchronized void prefetch(String uuid) {
+        if (!failed && !cache.containsKey(uuid))
+            queued.add(uuid);
+    }
+
+    /**
+     * Return the table, or null if it can't be read.
+     */
+    public synchronized Table get(String uuid) {
+        Object t = cache.get(uuid);
+        if (t == null && !failed) {
+            queued.add(uuid);
+            fetch(uuid);
+            t = cache.get(uuid);
+        }
+        return t instanceof Table ? (Table)t : null;
+    }
+
+    /**
+     * Fetch the queued tables, in batches, starting with uuid.
+     */
+    private void fetch(String uuid) {
+        List<String> batch = new ArrayList<>();
+        batch.add(uuid);
+        queued.remove(uuid);
+        Iterator<String> it = queued.iterator();
+        while (it.hasNext() && batch.size() < BATCH) {
+            batch.add(it.next());
+            it.remove();
+        }
+
+        Map<String, byte[]> data;
+        try {
+            data = query(batch);
+        } catch (SQLException ex) {
+            if (ex.getErrorCode() == SQLITE_ERROR) {
+                // probably an older database without tables
+                failed = true;
+                queued.clear();
+            }
+            // the tables in this batch are all missing
+            data = Collections.emptyMap();
+        }
+
+        for (String u : batch) {
+            byte[] b = data.get(u);
+            Object t = MISSING;
+            if (b != null) {
+                try {
+                    t = Table.decode(b);
+                } catch (IOException | RuntimeException ex) {
+                    // XXX - a format we don't understand
+                }
+            }
+            put(u, t);
+        }
+    }
+
+    /**
+     * Return the data for the tables with the uuids.
+     */
+    private Map<String, byte[]> query(List<String> batch)
+                                throws SQLException {
+        StringBuilder sql = new StringBuilder(query);
+        for (int i = 0; i < batch.size(); i++)
+            sql.append(i == 0 ? "?" : ", ?");
+        sql.append(")");
+        Map<String, byte[]> data = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < batch.size(); i++)
+                stmt.setString(i + 1, batch.get(i));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next())
+                    data.put(rs.getString(1), rs.getBytes(2));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Add the table to the cache, removing the least recently used
+     * tables if there are too many cells.
+     */
+    private void put(String uuid, Object t) {
+        cells += size(t);
+        cache.put(uuid, t);
+        Iterator<Object> it = cache.values().iterator();
+        while (cells > maxCells && cache.size() > 1) {
+            cells -= size(it.next());
+            it.remove();
+        }
+    }
+
+    private static int size(Object t) {
+        if (t instanceof Table) {
+            Table tb = (Table)t;
+            return Math.max(tb.rows() * tb.columns(), 1);
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A gzipped tar file archive, in POSIX (pax) format.
+ *
+ * The tar file is compressed in parallel, in blocks,
+ * by ParallelGzipOutputStream.
+ */
+public class TarArchive extends Archive {
+    private static final int RECORD = 512;
+
+    private final OutputStream out;
+    private final byte[] header = new byte[RECORD];
+
+    public TarArchive(File file) throws IOException {
+        out = new ParallelGzipOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 65536), pool, threads * 2);
+    }
+
+    @Override
+    public void add(String path, byte[] data, long time) throws IOException {
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 100) {
+            // the name is too long, put it in a pax extended header
+            byte[] rec = paxRecord("path", path);
+            writeHeader("././@PaxHeader".getBytes(StandardCharsets.UTF_8),
+                        rec.length, time, 'x');
+            out.write(rec);
+            pad(rec.length);
+            name = Arrays.copyOf(name, 100);
+        }
+        writeHeader(name, data.length, time, '0');
+        out.write(data);
+        pad(data.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // two empty records mark the end of the archive
+            out.write(new byte[RECORD * 2]);
+            out.close();
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Write a ustar header for the entry.
+     */
+    private void writeHeader(byte[] name, long size, long time, char type)
+                                throws IOException {
+        Arrays.fill(header, (byte)0);
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+        octal(100, 8, 0644);                    // mode
+        octal(108, 8, 0);                       // uid
+        octal(116, 8, 0);                       // gid
+        octal(124, 12, size);
+        octal(136, 12, Math.max(time / 1000, 0));
+        header[156] = (byte)type;
+        ascii(257, "ustar\0" + "00");
+        // the checksum is computed with the checksum field all spaces
+        Arrays.fill(header, 148, 156, (byte)' ');
+        int sum = 0;
+        for (byte b : header)
+            sum += b & 0xff;
+        octal(148, 7, sum);
+        out.write(header);
+    }
+
+    /**
+     * Store the value in the header as a zero padded octal number,
+     * followed by a NUL.
+     */
+    private void octal(int off, int len, long value) {
+        String s = Long.toOctalString(value);
+        while (s.length() < len - 1)
+            s = "0" + s;
+        ascii(off, s);
+        header[off + len - 1] = 0;
+    }
+
+    private void ascii(int off, String s) {
+        for (int i = 0; i < s.length(); i++)
+            header[off + i] = (byte)s.charAt(i);
+    }
+
+    /**
+     * Pad the entry data to a whole number of records.
+     */
+    private void pad(long size) throws IOException {
+        int n = (int)(size % RECORD);
+        if (n > 0)
+            out.write(new byte[RECORD - n]);
+    }
+
+    /**
+     * Return a pax extended header record, "len key=value\n",
+     * where len is the length of the whole record.
+     */
+    private static byte[] paxRecord(String key, String value) {
+        byte[] kv = (" " + key + "=" + value + "\n").
+                        getBytes(StandardCharsets.UTF_8);
+        int len = kv.length;
+        while (len != kv.length + Integer.toString(len).length())
+            len = kv.length + Integer.toString(len).length();
+        byte[] rec = new byte[len];
+        byte[] n = Integer.toString(len).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(n, 0, rec, 0, n.length);
+        System.arraycopy(kv, 0, rec, n.length, kv.length);
+        return rec;
+    }
+}
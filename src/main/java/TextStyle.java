@@ -33,7 +33,7 @@
  * A text style (bold, italic).
  */
 public class TextStyle extends Style {
-    public int style;
+    public final int style;
 
     public static final int BOLD = 0x01;
     public static final int ITALIC = 0x02;
@@ -51,4 +51,8 @@ public class TextStyle extends Style {
         TextStyle to = (TextStyle)o;
         return style == to.style;
     }
+
+    public int hashCode() {
+        return style;
+    }
 }
@@ -33,7 +33,7 @@
  * A URL style.
  */
 public class UrlStyle extends Style {
-    public String url;
+    public final String url;
 
     public UrlStyle(String url) {
         super();
@@ -46,4 +46,8 @@ public class UrlStyle extends Style {
         UrlStyle to = (UrlStyle)o;
         return eq(url, to.url);
     }
+
+    public int hashCode() {
+        return hash(url);
+    }
 }
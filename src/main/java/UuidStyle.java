@@ -34,8 +34,8 @@
  * Usually a reference to some external data, such as a table or image.
  */
 public class UuidStyle extends Style {
-    public String uuid;
-    public String type;
+    public final String uuid;
+    public final String type;
 
     public UuidStyle(String uuid, String type) {
         super();
@@ -49,4 +49,8 @@ public class UuidStyle extends Style {
         UuidStyle to = (UuidStyle)o;
         return eq(uuid, to.uuid) && eq(type, to.type);
     }
+
+    public int hashCode() {
+        return hash(uuid) * 31 + hash(type);
+    }
 }
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2019 Bill Shannon. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the copyright holder nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A zip file archive.
+ *
+ * Each entry is compressed on its own, so the entries are compressed
+ * in parallel, by the pool threads, and written in the order they were
+ * added when they're done.  (java.util.zip.ZipOutputStream can only
+ * compress the entries itself, as they're written.)  ZIP64 records
+ * are used if there are too many entries, or the file is too big,
+ * for the original zip format.
+ */
+public class ZipArchive extends Archive {
+    private static final int LOCAL = 0x04034b50;
+    private static final int CENTRAL = 0x02014b50;
+    private static final int END = 0x06054b50;
+    private static final int END64 = 0x06064b50;
+    private static final int LOCATOR64 = 0x07064b50;
+    private static final int UTF8 = 0x0800;     // names are UTF-8
+    private static final long MAX = 0xffffffffL;
+
+    // the deflater for each pool thread
+    private static final ThreadLocal<Deflater> deflater =
+        new ThreadLocal<Deflater>() {
+            protected Deflater initialValue() {
+                return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            }
+        };
+
+    private final OutputStream out;
+    private long offset;                // of the next entry
+    private final Deque<Future<Entry>> pending = new ArrayDeque<>();
+    private final List<Entry> entries = new ArrayList<>();
+
+    private static class Entry {
+        byte[] name;
+        int time;               // MS-DOS date and time
+        int method;
+        int crc;
+        int size;
+        byte[] data;            // compressed
+        int csize;
+        long offset;            // of the local header
+    }
+
+    public ZipArchive(File file) throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+    }
+
+    @Override
+    public void add(String path, final byte[] data, long time)
+                                throws IOException {
+        final Entry e = new Entry();
+        e.name = path.getBytes(StandardCharsets.UTF_8);
+        e.time = dosTime(time);
+        pending.add(pool.submit(new Callable<Entry>() {
+            public Entry call() {
+                compress(e, data);
+                return e;
+            }
+        }));
+        // limit the data waiting to be written
+        while (pending.size() > threads * 4)
+            writeNext();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty())
+                writeNext();
+            writeCentralDirectory();
+        } finally {
+            out.close();
+            super.close();
+        }
+    }
+
+    /**
+     * Compress the data, or store it if it doesn't compress.
+     * Called by the pool threads.
+     */
+    private static void compress(Entry e, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        e.crc = (int)crc.getValue();
+        e.size = data.length;
+
+        Deflater d = deflater.get();
+        d.reset();
+        d.setInput(data);
+        d.finish();
+        byte[] buf = new byte[data.length / 2 + 64];
+        int n = 0;
+        while (!d.finished() && n < data.length) {
+            if (n == buf.length)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            n += d.deflate(buf, n, buf.length - n);
+        }
+        if (d.finished() && n < data.length) {
+            e.method = Deflater.DEFLATED;
+            e.data = buf;
+            e.csize = n;
+        } else {
+            e.method = 0;       // stored
+            e.data = data;
+            e.csize = data.length;
+        }
+    }
+
+    /**
+     * Write the next entry, when it's been compressed.
+     */
+    private void writeNext() throws IOException {
+        Entry e = get(pending.remove());
+        e.offset = offset;
+        ByteBuffer h = header(30 + e.name.length);
+        h.putInt(LOCAL).putShort((short)20).putShort((short)UTF8).
+            putShort((short)e.method).putInt(e.time).putInt(e.crc).
+            putInt(e.csize).putInt(e.size).
+            putShort((short)e.name.length).putShort((short)0).put(e.name);
+        write(h);
+        out.write(e.data, 0, e.csize);
+        offset += e.csize;
+        e.data = null;
+        entries.add(e);
+    }
+
+    /**
+     * Write the central directory and the end of central directory
+     * records, using the ZIP64 records if necessary.
+     */
+    private void writeCentralDirectory() throws IOException {
+        long start = offset;
+        for (Entry e : entries) {
+            boolean zip64 = e.offset >= MAX;
+            ByteBuffer h = header(46 + e.name.length + (zip64 ? 12 : 0));
+            h.putInt(CENTRAL).putShort((short)(zip64 ? 45 : 20)).
+                putShort((short)(zip64 ? 45 : 20)).putShort((short)UTF8).
+                putShort((short)e.method).putInt(e.time).putInt(e.crc).
+                putInt(e.csize).putInt(e.size).
+                putShort((short)e.name.length).
+                putShort((short)(zip64 ? 12 : 0)).
+                putShort((short)0).putShort((short)0).putShort((short)0).
+                putInt(0).putInt((int)(zip64 ? MAX : e.offset)).put(e.name);
+            if (zip64)
+                h.putShort((short)1).putShort((short)8).putLong(e.offset);
+            write(h);
+        }
+        long end = offset;
+        long size = end - start;
+        long count = entries.size();
+        if (count >= 0xffff || start >= MAX || size >= MAX) {
+            ByteBuffer h = header(56 + 20);
+            h.putInt(END64).putLong(44).putShort((short)45).
+                putShort((short)45).putInt(0).putInt(0).
+                putLong(count).putLong(count).putLong(size).putLong(start);
+            h.putInt(LOCATOR64).putInt(0).putLong(end).putInt(1);
+            write(h);
+            count = 0xffff;
+            size = Math.min(size, MAX);
+            start = MAX;
+        }
+        ByteBuffer h = header(22);
+        h.putInt(END).putShort((short)0).putShort((short)0).
+            putShort((short)count).putShort((short)count).
+            putInt((int)size).putInt((int)start).putShort((short)0);
+        write(h);
+    }
+
+    private static ByteBuffer header(int len) {
+        return ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer h) throws IOException {
+        out.write(h.array(), 0, h.position());
+        offset += h.position();
+    }
+
+    /**
+     * Convert the time to the MS-DOS date and time format,
+     * with the date in the high 16 bits.
+     */
+    private static int dosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);       // 1980-01-01
+        return (year - 1980) << 25 |
+            (c.get(Calendar.MONTH) + 1) << 21 |
+            c.get(Calendar.DAY_OF_MONTH) << 16 |
+            c.get(Calendar.HOUR_OF_DAY) << 11 |
+            c.get(Calendar.MINUTE) << 5 |
+            c.get(Calendar.SECOND) >> 1;
+    }
+}